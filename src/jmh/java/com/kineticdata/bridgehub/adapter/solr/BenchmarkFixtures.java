@@ -0,0 +1,86 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Canned workloads shared by the benchmarks, so every run measures the same inputs.
+ */
+final class BenchmarkFixtures {
+
+    /** The fields the response mapping benchmarks ask for, mixing plain and nested paths. */
+    static final List<String> FIELDS = Arrays.asList("id", "name", "price", "inStock", "cat", "features[0]");
+
+    /** Metrics that are thrown away, so the benchmarks measure the adapter rather than JMX. */
+    static final SolrQueryMetrics NO_METRICS = new SolrQueryMetrics() {
+        @Override public void recordCall(long totalNanos, int records, boolean failed) {}
+        @Override public void recordParse(long nanos) {}
+        @Override public void recordRequest(long bodyBytes, long bytesSent) {}
+        @Override public void recordResponse(long networkNanos, long decodeNanos, long bytesReceived, long bytesDecoded,
+            int status, boolean failed) {}
+        @Override public void recordQTime(long millis) {}
+    };
+
+    static final SolrMetricsRegistry NO_METRICS_REGISTRY = new SolrMetricsRegistry() {
+        @Override public SolrQueryMetrics getQueryMetrics(String method, String core) { return NO_METRICS; }
+        @Override public void close() {}
+    };
+
+    private BenchmarkFixtures() {}
+
+    /**
+     * Builds a Solr JSON response holding the given number of documents. The documents are the
+     * techproducts documents recorded in techproducts-docs.json, repeated with unique ids.
+     */
+    static byte[] buildResponse(int documentCount) throws IOException, ParseException {
+        JSONArray recorded;
+        try (InputStream resource = BenchmarkFixtures.class.getResourceAsStream("/techproducts-docs.json")) {
+            recorded = (JSONArray)new JSONParser().parse(SolrAdapter.readString(resource, StandardCharsets.UTF_8));
+        }
+        StringBuilder response = new StringBuilder()
+            .append("{\"responseHeader\":{\"status\":0,\"QTime\":3,\"params\":{\"q\":\"*:*\",\"wt\":\"json\",\"rows\":\"")
+            .append(documentCount)
+            .append("\"}},\"response\":{\"numFound\":")
+            .append(documentCount * 10L)
+            .append(",\"start\":0,\"numFoundExact\":true,\"docs\":[");
+        for (int i = 0; i < documentCount; i++) {
+            JSONObject document = new JSONObject();
+            document.putAll((Map)recorded.get(i % recorded.size()));
+            document.put("id", document.get("id") + "-" + i);
+            if (i > 0) response.append(',');
+            response.append(document.toJSONString());
+        }
+        return response.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Re-encodes a JSON response as javabin, the way Solr answers wt=javabin. */
+    static byte[] toJavaBin(byte[] jsonResponse) throws ParseException {
+        return JavaBinWriter.write(new JSONParser().parse(new String(jsonResponse, StandardCharsets.UTF_8)));
+    }
+
+    /** Builds a bridge request the way the bridgehub hands one to the adapter. */
+    static BridgeRequest request(String query, Map<String,String> parameters) {
+        Map<String,String> metadata = new HashMap<>();
+        metadata.put("pageSize", "1000");
+        metadata.put("offset", "0");
+        metadata.put("order", "<%=field[\"name\"]%>:ASC,<%=field[\"price\"]%>:DESC");
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("techproducts");
+        request.setQuery(query);
+        request.setParameters(parameters);
+        request.setMetadata(metadata);
+        request.setFields(FIELDS);
+        return request;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures escaping parameter values, from values with nothing to escape to values made of
+ * nothing but characters and keywords that need escaping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeParameterBenchmark {
+
+    @Param({"plain", "reserved", "operators", "longReserved", "unicode"})
+    public String input;
+
+    private SolrQualificationParser parser;
+    private String value;
+
+    @Setup
+    public void setup() {
+        parser = new SolrQualificationParser();
+        switch (input) {
+            case "plain":
+                value = "Samsung SpinPoint P120 SP2514N hard drive 250 GB ATA133";
+                break;
+            case "reserved":
+                value = "+-=&&||><!(){}[]^\"~*?:\\/ $";
+                break;
+            case "operators":
+                value = "ipod AND video OR mp3 NOT (black && white) || silver";
+                break;
+            case "longReserved":
+                value = StringUtils.repeat("a\\\"b*c?(d) AND ", 1000);
+                break;
+            case "unicode":
+                value = "\u8fd9\u662f\u4e00\u4e2a\u529f\u80fd (translated) \u00e9 \u00fc \u00df \u00a0 \u2028 \u2014 \"quoted\"";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input " + input);
+        }
+    }
+
+    @Benchmark
+    public String encodeParameter() {
+        return parser.encodeParameter("Name", value);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures turning a bridge qualification into a Solr query for each of the supported query
+ * styles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QualificationParserBenchmark {
+
+    @Param({"lucene", "solrDsl", "kineticDsl"})
+    public String style;
+
+    private SolrQualificationParser parser;
+    private String query;
+    private Map<String,String> parameters;
+
+    @Setup
+    public void setup() {
+        parser = new SolrQualificationParser();
+        parameters = new HashMap<>();
+        switch (style) {
+            case "lucene":
+                query = "name:<%= parameter[\"Name\"] %> AND manu:<%= parameter[\"Manufacturer\"] %>"
+                    + " AND cat:<%= parameter[\"Category\"] %>";
+                parameters.put("Name", "iPod (60 GB)");
+                parameters.put("Manufacturer", "Apple Computer Inc.");
+                parameters.put("Category", "music");
+                break;
+            case "solrDsl":
+                query = "{\"type\": \"Solr DSL\", \"query\": \"{\\\"query\\\": \\\"name:*<%= parameter[\"Name\"] %>*\\\","
+                    + " \\\"filter\\\": [\\\"inStock:true\\\", \\\"manu:<%= parameter[\"Manufacturer\"] %>\\\"]}\"}";
+                parameters.put("Name", "iPod \"video\"");
+                parameters.put("Manufacturer", "Apple Computer Inc.");
+                break;
+            case "kineticDsl":
+                query = "{\"type\": \"Kinetic DSL\", \"query\": \"<%= parameter[\"Kinetic Query\"] %>\","
+                    + " \"queryPrefix\": \"inStock:true\", \"whitelistFields\": [\"name\", \"features\", \"cat\"]}";
+                parameters.put("Kinetic Query", "{\"name\": {\"value\": [\"Apple\", \"ipod\"], \"matcher\": \"like\","
+                    + " \"requireAll\": true}, \"features\": {\"value\": \"mp3\"}, \"cat\": {\"value\": \"music\"}}");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query style " + style);
+        }
+    }
+
+    @Benchmark
+    public String parse() throws Exception {
+        return parser.parse(query, parameters);
+    }
+
+}
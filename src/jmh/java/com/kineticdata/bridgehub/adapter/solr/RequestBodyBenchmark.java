@@ -0,0 +1,47 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures building the form encoded body of a Solr request from a bridge request, which
+ * includes parsing the qualification, the field list and the sort order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RequestBodyBenchmark {
+
+    @Param({"count", "search"})
+    public String method;
+
+    private SolrAdapter adapter;
+    private BridgeRequest request;
+
+    @Setup
+    public void setup() {
+        adapter = new SolrAdapter();
+        Map<String,String> parameters = new HashMap<>();
+        parameters.put("Name", "iPod (60 GB)");
+        parameters.put("Manufacturer", "Apple Computer Inc.");
+        request = BenchmarkFixtures.request(
+            "name:<%= parameter[\"Name\"] %> AND manu:<%= parameter[\"Manufacturer\"] %>", parameters);
+    }
+
+    @Benchmark
+    public HttpEntity buildRequestBody() throws Exception {
+        return adapter.buildRequestBody(method, request, new SolrQualificationParser());
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures mapping a Solr response to bridge records, the work done for every response once it
+ * starts arriving. The response is read from memory so only decoding and mapping is measured.
+ *
+ * <ul>
+ *   <li><code>search</code> streams response.docs to records, as a search without a root path</li>
+ *   <li><code>searchJavabin</code> streams the same response sent as javabin</li>
+ *   <li><code>searchRoot</code> parses the whole response and maps the jsonRootPath</li>
+ *   <li><code>retrieveRoot</code> parses the whole response and maps the one document at the
+ *       jsonRootPath, a retrieve can only ever stream a single document otherwise</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseMappingBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int documents;
+
+    @Param({"search", "searchJavabin", "searchRoot", "retrieveRoot"})
+    public String mapping;
+
+    private SolrAdapter adapter;
+    private byte[] response;
+    private ResponseReader<?> reader;
+
+    @Setup
+    public void setup() throws Exception {
+        adapter = new SolrAdapter();
+        adapter.setMetricsRegistry(BenchmarkFixtures.NO_METRICS_REGISTRY);
+        response = BenchmarkFixtures.buildResponse(documents);
+        BridgeRequest request = BenchmarkFixtures.request("*:*", Collections.<String,String>emptyMap());
+        SolrRequest solrRequest = new SolrRequest("techproducts", "/techproducts/select", Collections.emptyList());
+        switch (mapping) {
+            case "search":
+                reader = adapter.searchReader(request, solrRequest, null, BenchmarkFixtures.NO_METRICS);
+                break;
+            case "searchJavabin":
+                response = BenchmarkFixtures.toJavaBin(response);
+                reader = adapter.searchReader(request, new SolrRequest("techproducts", "/techproducts/select",
+                    Collections.emptyList(), SolrAdapter.RESPONSE_FORMAT_JAVABIN), null, BenchmarkFixtures.NO_METRICS);
+                break;
+            case "searchRoot":
+                reader = adapter.searchReader(request, solrRequest, "$.response.docs", BenchmarkFixtures.NO_METRICS);
+                break;
+            case "retrieveRoot":
+                reader = adapter.retrieveReader(request, solrRequest, "$.response.docs[0]", BenchmarkFixtures.NO_METRICS);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mapping " + mapping);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        adapter.destroy();
+    }
+
+    @Benchmark
+    public Object map() throws Exception {
+        return reader.read(new ByteArrayInputStream(response), StandardCharsets.UTF_8);
+    }
+
+}
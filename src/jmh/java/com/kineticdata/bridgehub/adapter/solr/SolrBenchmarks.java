@@ -0,0 +1,172 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the adapter benchmarks with the gc profiler, so each result reports its allocation rate
+ * alongside its throughput, and saves the results as JSON (target/jmh-result.json unless -rff
+ * is given).
+ *
+ * <pre>
+ * SolrBenchmarks [-baseline &lt;results.json&gt;] [-threshold &lt;percent&gt;] [JMH options] [benchmark regex...]
+ * </pre>
+ *
+ * With -baseline the results are compared to the results of an earlier run, such as one saved on
+ * the main branch, and the run fails when a benchmark lost more than -threshold percent (default
+ * 10) of its throughput. Any other argument is handed to JMH, for example -f 1 -wi 2 -i 3 for a
+ * quicker run.
+ */
+public class SolrBenchmarks {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, ParseException,
+        RunnerException
+    {
+        String baseline = null;
+        double threshold = 10;
+        List<String> jmhArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = args[++i];
+            } else if ("-threshold".equals(args[i]) && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs.toArray(new String[jmhArgs.size()]));
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(SolrBenchmarks.class.getPackage().getName() + "\\..*Benchmark");
+        }
+        builder.addProfiler(GCProfiler.class);
+        if (commandLine.getForkCount().hasValue() == false) builder.forks(1);
+        if (commandLine.getWarmupIterations().hasValue() == false) builder.warmupIterations(3);
+        if (commandLine.getMeasurementIterations().hasValue() == false) builder.measurementIterations(5);
+        if (commandLine.getResult().hasValue() == false) builder.result("target/jmh-result.json");
+        if (commandLine.getResultFormat().hasValue() == false) builder.resultFormat(ResultFormatType.JSON);
+        Options options = builder.build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        if (baseline != null) {
+            int regressions = compare(readBaseline(new File(baseline)), results, threshold);
+            if (regressions > 0) {
+                System.err.printf("%d benchmark(s) lost more than %.1f%% of their baseline throughput.%n",
+                    regressions, threshold);
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Prints each result next to its baseline and returns the number of regressions. */
+    private static int compare(Map<String,double[]> baseline, Collection<RunResult> results, double threshold) {
+        int regressions = 0;
+        System.out.println();
+        System.out.printf("%-70s %14s %14s %9s %12s %12s%n",
+            "Benchmark", "Baseline", "Current", "Change", "Base B/op", "Current B/op");
+        for (RunResult result : results) {
+            String key = key(result.getParams());
+            double score = result.getPrimaryResult().getScore();
+            double allocation = getAllocation(result.getSecondaryResults());
+            double[] base = baseline.get(key);
+            if (base == null) {
+                System.out.printf("%-70s %14s %14.3f %9s %12s %12.1f%n", key, "-", score, "new", "-", allocation);
+                continue;
+            }
+            double change = (score - base[0]) / base[0] * 100;
+            boolean regressed = change < -threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%% %12.1f %12.1f%s%n",
+                key, base[0], score, change, base[1], allocation, regressed ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    /** Reads the score and allocation of each benchmark from a JMH JSON result file. */
+    private static Map<String,double[]> readBaseline(File file) throws IOException, ParseException {
+        Map<String,double[]> baseline = new LinkedHashMap<>();
+        JSONArray runs;
+        try (InputStream content = new FileInputStream(file)) {
+            runs = (JSONArray)new JSONParser().parse(SolrAdapter.readString(content, StandardCharsets.UTF_8));
+        }
+        for (Object element : runs) {
+            JSONObject run = (JSONObject)element;
+            Map<String,Object> params = run.get("params") == null
+                ? new TreeMap<String,Object>() : new TreeMap<String,Object>((Map)run.get("params"));
+            double score = ((Number)((Map)run.get("primaryMetric")).get("score")).doubleValue();
+            double allocation = Double.NaN;
+            Map<String,Object> secondary = (Map)run.get("secondaryMetrics");
+            if (secondary != null) {
+                for (Map.Entry<String,Object> metric : secondary.entrySet()) {
+                    if (stripPrefix(metric.getKey()).equals(ALLOCATION)) {
+                        allocation = ((Number)((Map)metric.getValue()).get("score")).doubleValue();
+                    }
+                }
+            }
+            baseline.put(key((String)run.get("benchmark"), params), new double[] {score, allocation});
+        }
+        return baseline;
+    }
+
+    private static double getAllocation(Map<String,Result> secondary) {
+        for (Map.Entry<String,Result> metric : secondary.entrySet()) {
+            if (stripPrefix(metric.getKey()).equals(ALLOCATION)) {
+                return metric.getValue().getScore();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String key(BenchmarkParams params) {
+        Map<String,Object> values = new TreeMap<>();
+        for (String name : params.getParamsKeys()) {
+            values.put(name, params.getParam(name));
+        }
+        return key(params.getBenchmark(), values);
+    }
+
+    private static String key(String benchmark, Map<String,Object> params) {
+        String name = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+        List<String> values = new ArrayList<>();
+        for (Map.Entry<String,Object> param : params.entrySet()) {
+            values.add(param.getKey() + "=" + param.getValue());
+        }
+        return values.isEmpty() ? name : name + Arrays.toString(values.toArray());
+    }
+
+    /** Older JMH versions prefix the gc profiler metrics with a middle dot. */
+    private static String stripPrefix(String metric) {
+        return metric.startsWith("\u00b7") ? metric.substring(1) : metric;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of a bridge field list. Each field is inspected once: plain field names are
+ * read from the document with a map lookup and only real JsonPath expressions are compiled and
+ * evaluated by the JsonPath engine. Plans are cached by field list since a bridge model sends the
+ * same list on every call.
+ *
+ * The plan also works out which top level Solr fields its expressions read, so that only those
+ * are requested in <code>fl</code> and the expressions themselves are applied to the documents
+ * once they have been received.
+ */
+class FieldExtractionPlan {
+
+    /** Field names that JsonPath would resolve as a single property of the document. */
+    private static final Pattern PLAIN_FIELD = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    /** Missing leaves read as null instead of raising (and catching) a PathNotFoundException. */
+    private static final Configuration DEFINITE_PATH_CONFIGURATION = Configuration.defaultConfiguration()
+        .addOptions(Option.DEFAULT_PATH_LEAF_TO_NULL, Option.SUPPRESS_EXCEPTIONS);
+    private static final Configuration INDEFINITE_PATH_CONFIGURATION = Configuration.defaultConfiguration()
+        .addOptions(Option.SUPPRESS_EXCEPTIONS);
+    private static final int CACHE_SIZE = 256;
+    private static final LruCache<List<String>,FieldExtractionPlan> CACHE = new LruCache<>(CACHE_SIZE);
+    private static final FieldExtractionPlan EMPTY = new FieldExtractionPlan(Collections.<String>emptyList());
+
+    private final String[] fields;
+    // The compiled path of each field, null for plain field names.
+    private final JsonPath[] paths;
+    // True for fields whose expression failed to compile, these always read as null.
+    private final boolean[] invalid;
+    // The fl that returns every field the plan reads, null when it may read any field.
+    private final String solrFieldList;
+
+    private FieldExtractionPlan(List<String> fieldList) {
+        int size = fieldList.size();
+        this.fields = fieldList.toArray(new String[size]);
+        this.paths = new JsonPath[size];
+        this.invalid = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            if (PLAIN_FIELD.matcher(fields[i]).matches() == false) {
+                try {
+                    paths[i] = JsonPath.compile(fields[i]);
+                } catch (InvalidPathException | IllegalArgumentException e) {
+                    invalid[i] = true;
+                }
+            }
+        }
+        this.solrFieldList = buildSolrFieldList();
+    }
+
+    /** Returns the (possibly cached) plan for the field list of a bridge request. */
+    static FieldExtractionPlan forFields(List<String> fieldList) {
+        if (fieldList == null || fieldList.isEmpty()) {
+            return EMPTY;
+        }
+        FieldExtractionPlan plan = CACHE.get(fieldList);
+        if (plan == null) {
+            // Key on a private copy so later changes to the request's list can't corrupt the cache.
+            List<String> key = new ArrayList<String>(fieldList);
+            plan = new FieldExtractionPlan(key);
+            CACHE.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * The fl parameter that returns just the top level fields the plan reads, such as
+     * <code>author</code> for <code>$.author[0]</code>. Null when an expression can read any field
+     * (a deep scan, a wildcard, a filter or a function of the whole document), in which case
+     * every stored field has to be returned.
+     */
+    String getSolrFieldList() {
+        return solrFieldList;
+    }
+
+    /** Reads every field of the plan from a decoded Solr document. */
+    Map<String,Object> extract(Object document) {
+        Map<String,Object> recordValues = new HashMap<String,Object>();
+        for (int i = 0; i < fields.length; i++) {
+            recordValues.put(fields[i], read(i, document));
+        }
+        return recordValues;
+    }
+
+    private String buildSolrFieldList() {
+        LinkedHashSet<String> solrFields = new LinkedHashSet<String>();
+        for (int i = 0; i < fields.length; i++) {
+            if (invalid[i]) {
+                continue;
+            } else if (paths[i] == null) {
+                solrFields.add(fields[i]);
+            } else {
+                List<String> rootProperties = getRootProperties(paths[i].getPath());
+                if (rootProperties == null) return null;
+                solrFields.addAll(rootProperties);
+            }
+        }
+        return solrFields.isEmpty() ? null : String.join(",", solrFields);
+    }
+
+    /**
+     * The properties a compiled path starts with, read from its normalized form such as
+     * <code>$['author'][0]</code> or <code>$['a','b']</code>. Null when the path does not start
+     * with named properties.
+     */
+    private static List<String> getRootProperties(String normalizedPath) {
+        if ((normalizedPath.startsWith("$['") || normalizedPath.startsWith("@['")) == false) {
+            return null;
+        }
+        int end = normalizedPath.indexOf("']", 3);
+        if (end < 0) {
+            return null;
+        }
+        List<String> properties = new ArrayList<String>();
+        for (String property : normalizedPath.substring(3, end).split("','")) {
+            properties.add(property);
+        }
+        return properties;
+    }
+
+    private Object read(int index, Object document) {
+        if (invalid[index]) {
+            return null;
+        }
+        JsonPath path = paths[index];
+        if (path == null) {
+            return (document instanceof Map) ? ((Map)document).get(fields[index]) : null;
+        }
+        return path.read(document, path.isDefinite() ? DEFINITE_PATH_CONFIGURATION : INDEFINITE_PATH_CONFIGURATION);
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.minidev.json.JSONArray;
+
+/**
+ * Streams a Solr javabin response (<code>wt=javabin</code>) off the wire, handing each document
+ * of <code>response.docs</code> to the listener as soon as it has been read. This is Solr's own
+ * binary format: values are tagged with their type, numbers are sent in binary, strings are
+ * length prefixed and field names are sent once and referred to by index afterwards, so there is
+ * no text to tokenize or escape.
+ *
+ * The decoder is self-contained, it reads version 2 of the format as written by Solr's
+ * JavaBinCodec without depending on SolrJ. Values are converted to what the same response parses
+ * to in JSON: dates become ISO-8601 strings, byte arrays base64 strings, floats the double their
+ * text form reads as, and longs that fit an Integer become one.
+ */
+class JavaBinResponseDecoder extends SolrResponseDecoder {
+
+    private static final int VERSION = 2;
+
+    // Tags of the types that take a whole byte.
+    private static final int NULL = 0;
+    private static final int BOOL_TRUE = 1;
+    private static final int BOOL_FALSE = 2;
+    private static final int BYTE = 3;
+    private static final int SHORT = 4;
+    private static final int DOUBLE = 5;
+    private static final int INT = 6;
+    private static final int LONG = 7;
+    private static final int FLOAT = 8;
+    private static final int DATE = 9;
+    private static final int MAP = 10;
+    private static final int SOLRDOC = 11;
+    private static final int SOLRDOCLST = 12;
+    private static final int BYTEARR = 13;
+    private static final int ITERATOR = 14;
+    private static final int END = 15;
+    private static final int MAP_ENTRY_ITER = 17;
+    private static final int ENUM_FIELD_VALUE = 18;
+    private static final int MAP_ENTRY = 19;
+    private static final int UUID_VALUE = 20;
+    // Tags held in the top three bits, the other five carry a size or a small value.
+    private static final int STR = 1;
+    private static final int SINT = 2;
+    private static final int SLONG = 3;
+    private static final int ARR = 4;
+    private static final int ORDERED_MAP = 5;
+    private static final int NAMED_LST = 6;
+    private static final int EXTERN_STRING = 7;
+
+    /** Marks the END tag that closes an iterator. */
+    private static final Object END_OF_ITERATOR = new Object();
+
+    private DataInputStream input;
+    // Strings sent once and referred to by their (1 based) index afterwards, mostly field names.
+    private final List<String> externStrings = new ArrayList<>();
+    private byte[] stringBytes = new byte[128];
+
+    JavaBinResponseDecoder(DocumentListener listener) {
+        super(listener);
+    }
+
+    @Override
+    public JavaBinResponseDecoder read(InputStream content, Charset charset) throws IOException, BridgeError {
+        // The format is read a byte at a time, which would be costly straight off the transport.
+        input = new DataInputStream(new BufferedInputStream(content, 8192));
+        readVersion();
+        int tag = input.readUnsignedByte();
+        if (tag >>> 5 == ORDERED_MAP || tag >>> 5 == NAMED_LST) {
+            readResponse(readSize(tag));
+        } else {
+            readValue(tag);
+        }
+        return this;
+    }
+
+    /**
+     * Decodes a whole javabin body into the maps and lists it would parse to as JSON, such as to
+     * describe an error response.
+     */
+    static Object decode(InputStream content) throws IOException, BridgeError {
+        JavaBinResponseDecoder decoder = new JavaBinResponseDecoder(null);
+        decoder.input = new DataInputStream(new BufferedInputStream(content, 8192));
+        decoder.readVersion();
+        return decoder.readValue(decoder.input.readUnsignedByte());
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void readVersion() throws IOException, BridgeError {
+        int version = input.read();
+        if (version != VERSION) {
+            throw new BridgeError(String.format(
+                "The Solr response is not in version %d of the javabin format (version byte %d).", VERSION, version));
+        }
+    }
+
+    /** Reads the entries of the top level named list, streaming the documents of the response. */
+    private void readResponse(int size) throws IOException, BridgeError {
+        for (int i = 0; i < size; i++) {
+            Object name = readValue(input.readUnsignedByte());
+            int tag = input.readUnsignedByte();
+            if ("response".equals(name) && tag == SOLRDOCLST) {
+                readDocuments();
+            } else if ("responseHeader".equals(name)) {
+                Object header = readValue(tag);
+                Object value = header instanceof Map ? ((Map)header).get("QTime") : null;
+                if (value instanceof Number) qTime = ((Number)value).longValue();
+            } else if ("nextCursorMark".equals(name)) {
+                Object value = readValue(tag);
+                if (value instanceof String) nextCursorMark = (String)value;
+            } else {
+                readValue(tag);
+            }
+        }
+    }
+
+    /** Reads response.numFound and hands each document of response.docs to the listener. */
+    private void readDocuments() throws IOException, BridgeError {
+        List<Object> header = (List<Object>)readValue(input.readUnsignedByte());
+        if (header.isEmpty() == false && header.get(0) instanceof Number) {
+            numFound = ((Number)header.get(0)).longValue();
+        }
+        int tag = input.readUnsignedByte();
+        if (tag >>> 5 == ARR) {
+            int size = readSize(tag);
+            for (int i = 0; i < size; i++) {
+                addDocument(readValue(input.readUnsignedByte()));
+            }
+        } else if (tag == ITERATOR) {
+            for (Object document; (document = readValue(input.readUnsignedByte())) != END_OF_ITERATOR; ) {
+                addDocument(document);
+            }
+        } else {
+            readValue(tag);
+        }
+    }
+
+    private void addDocument(Object document) {
+        if (document instanceof Map) document((Map<String,Object>)document);
+    }
+
+    private Object readValue(int tag) throws IOException, BridgeError {
+        switch (tag >>> 5) {
+            case STR: return readString(readSize(tag));
+            case SINT: return readSmallInt(tag);
+            case SLONG: return normalize(readSmallLong(tag));
+            case ARR: {
+                int size = readSize(tag);
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < size; i++) array.add(readValue(input.readUnsignedByte()));
+                return array;
+            }
+            case ORDERED_MAP: return readNamedList(readSize(tag));
+            case NAMED_LST: {
+                // JSON writes a plain named list flat, as name, value, name, value...
+                int size = readSize(tag);
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(input.readUnsignedByte()));
+                    array.add(readValue(input.readUnsignedByte()));
+                }
+                return array;
+            }
+            case EXTERN_STRING: {
+                int index = readSize(tag);
+                if (index > 0) return externStrings.get(index - 1);
+                String value = readString(readSize(input.readUnsignedByte()));
+                externStrings.add(value);
+                return value;
+            }
+            default: break;
+        }
+        switch (tag) {
+            case NULL: return null;
+            case BOOL_TRUE: return Boolean.TRUE;
+            case BOOL_FALSE: return Boolean.FALSE;
+            case BYTE: return (int)input.readByte();
+            case SHORT: return (int)input.readShort();
+            case INT: return input.readInt();
+            case LONG: return normalize(input.readLong());
+            // JSON writes the shortest text that reads back as the float.
+            case FLOAT: return Double.valueOf(Float.toString(input.readFloat()));
+            case DOUBLE: return input.readDouble();
+            case DATE: return Instant.ofEpochMilli(input.readLong()).toString();
+            case BYTEARR: {
+                byte[] bytes = new byte[readVInt()];
+                input.readFully(bytes);
+                return Base64.getEncoder().encodeToString(bytes);
+            }
+            case MAP: {
+                int size = readVInt();
+                Map<String,Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(String.valueOf(readValue(input.readUnsignedByte())), readValue(input.readUnsignedByte()));
+                }
+                return map;
+            }
+            case MAP_ENTRY_ITER: {
+                Map<String,Object> map = new LinkedHashMap<>();
+                for (Object key; (key = readValue(input.readUnsignedByte())) != END_OF_ITERATOR; ) {
+                    map.put(String.valueOf(key), readValue(input.readUnsignedByte()));
+                }
+                return map;
+            }
+            case MAP_ENTRY: {
+                Map<String,Object> map = new LinkedHashMap<>();
+                map.put(String.valueOf(readValue(input.readUnsignedByte())), readValue(input.readUnsignedByte()));
+                return map;
+            }
+            case ITERATOR: {
+                JSONArray array = new JSONArray();
+                for (Object value; (value = readValue(input.readUnsignedByte())) != END_OF_ITERATOR; ) {
+                    array.add(value);
+                }
+                return array;
+            }
+            case END: return END_OF_ITERATOR;
+            case SOLRDOC: return readDocument();
+            case SOLRDOCLST: {
+                List<Object> header = (List<Object>)readValue(input.readUnsignedByte());
+                Map<String,Object> documentList = new LinkedHashMap<>();
+                documentList.put("numFound", header.size() > 0 ? header.get(0) : null);
+                documentList.put("start", header.size() > 1 ? header.get(1) : null);
+                if (header.size() > 2 && header.get(2) != null) documentList.put("maxScore", header.get(2));
+                if (header.size() > 3) documentList.put("numFoundExact", header.get(3));
+                documentList.put("docs", readValue(input.readUnsignedByte()));
+                return documentList;
+            }
+            case ENUM_FIELD_VALUE: {
+                // The ordinal of the value is followed by its name, JSON only writes the name.
+                readValue(input.readUnsignedByte());
+                return readValue(input.readUnsignedByte());
+            }
+            case UUID_VALUE: return new UUID(input.readLong(), input.readLong()).toString();
+            default:
+                throw new BridgeError(String.format("The Solr response holds an unknown javabin type %d.", tag));
+        }
+    }
+
+    private Map<String,Object> readNamedList(int size) throws IOException, BridgeError {
+        Map<String,Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(String.valueOf(readValue(input.readUnsignedByte())), readValue(input.readUnsignedByte()));
+        }
+        return map;
+    }
+
+    /** Reads the fields of a document, the child documents are listed like JSON does. */
+    private Map<String,Object> readDocument() throws IOException, BridgeError {
+        int size = readSize(input.readUnsignedByte());
+        Map<String,Object> document = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Object name = readValue(input.readUnsignedByte());
+            if (name instanceof Map) {
+                JSONArray children = (JSONArray)document.get("_childDocuments_");
+                if (children == null) document.put("_childDocuments_", children = new JSONArray());
+                children.add(name);
+            } else {
+                document.put(String.valueOf(name), readValue(input.readUnsignedByte()));
+            }
+        }
+        return document;
+    }
+
+    private String readString(int length) throws IOException {
+        if (stringBytes.length < length) stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+        input.readFully(stringBytes, 0, length);
+        return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int readSize(int tag) throws IOException {
+        int size = tag & 0x1F;
+        if (size == 0x1F) size += readVInt();
+        return size;
+    }
+
+    private int readSmallInt(int tag) throws IOException {
+        int value = tag & 0x0F;
+        if ((tag & 0x10) != 0) value = (readVInt() << 4) | value;
+        return value;
+    }
+
+    private long readSmallLong(int tag) throws IOException {
+        long value = tag & 0x0F;
+        if ((tag & 0x10) != 0) value = (readVLong() << 4) | value;
+        return value;
+    }
+
+    private int readVInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new EOFException("Malformed javabin variable length int.");
+    }
+
+    private long readVLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new EOFException("Malformed javabin variable length long.");
+    }
+
+    /** JSON parses an integer to an Integer where it fits. */
+    private static Object normalize(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int)value;
+        }
+        return value;
+    }
+
+}
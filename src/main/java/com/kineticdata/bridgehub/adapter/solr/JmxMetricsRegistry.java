@@ -0,0 +1,199 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default metrics registry. Metrics are kept in memory and each method and core pair is
+ * published as an MXBean named
+ * <code>com.kineticdata.bridgehub.adapter.solr:type=SolrAdapter,instance=N,method=M,core=C</code>
+ * on the platform MBean server. The bulkhead of each core is published as
+ * <code>com.kineticdata.bridgehub.adapter.solr:type=SolrBulkhead,instance=N,core=C</code>.
+ */
+public class JmxMetricsRegistry implements SolrMetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+    private static final String DOMAIN = "com.kineticdata.bridgehub.adapter.solr";
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final int instance = INSTANCES.incrementAndGet();
+    // Keyed by method and then core so looking up the metrics of a call does not build a key.
+    private final ConcurrentHashMap<String,ConcurrentHashMap<String,QueryMetrics>> metrics = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,SolrBulkheadMXBean> bulkheads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,ObjectName> bulkheadNames = new ConcurrentHashMap<>();
+
+    @Override
+    public SolrQueryMetrics getQueryMetrics(String method, String core) {
+        ConcurrentHashMap<String,QueryMetrics> methodMetrics = metrics.get(method);
+        if (methodMetrics == null) {
+            methodMetrics = metrics.computeIfAbsent(method, key -> new ConcurrentHashMap<>());
+        }
+        QueryMetrics queryMetrics = methodMetrics.get(core);
+        if (queryMetrics == null) {
+            queryMetrics = methodMetrics.computeIfAbsent(core, key -> register(new QueryMetrics(method, key)));
+        }
+        return queryMetrics;
+    }
+
+    @Override
+    public void registerBulkhead(SolrBulkheadMXBean bulkhead) {
+        bulkheads.put(bulkhead.getCore(), bulkhead);
+        try {
+            ObjectName name = new ObjectName(String.format("%s:type=SolrBulkhead,instance=%d,core=%s",
+                DOMAIN, instance, ObjectName.quote(bulkhead.getCore())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bulkhead, name);
+            bulkheadNames.put(bulkhead.getCore(), name);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Unable to register the Solr adapter bulkhead MBean.", e);
+        }
+    }
+
+    /** The bulkheads registered so far, by core. */
+    public Map<String,SolrBulkheadMXBean> getBulkheads() {
+        return new TreeMap<String,SolrBulkheadMXBean>(bulkheads);
+    }
+
+    /** The metrics recorded so far, by method and core. */
+    public Map<String,Map<String,SolrQueryMetricsMXBean>> getMetrics() {
+        Map<String,Map<String,SolrQueryMetricsMXBean>> result = new TreeMap<>();
+        for (Map.Entry<String,ConcurrentHashMap<String,QueryMetrics>> entry : metrics.entrySet()) {
+            result.put(entry.getKey(), new TreeMap<String,SolrQueryMetricsMXBean>(entry.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ConcurrentHashMap<String,QueryMetrics> methodMetrics : metrics.values()) {
+            for (QueryMetrics queryMetrics : methodMetrics.values()) {
+                try {
+                    if (queryMetrics.name != null) server.unregisterMBean(queryMetrics.name);
+                } catch (JMException e) {
+                    logger.debug("Unable to unregister the Solr adapter MBean " + queryMetrics.name, e);
+                }
+            }
+        }
+        metrics.clear();
+        for (ObjectName name : bulkheadNames.values()) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.debug("Unable to unregister the Solr adapter MBean " + name, e);
+            }
+        }
+        bulkheadNames.clear();
+        bulkheads.clear();
+    }
+
+    private QueryMetrics register(QueryMetrics queryMetrics) {
+        try {
+            queryMetrics.name = new ObjectName(String.format("%s:type=SolrAdapter,instance=%d,method=%s,core=%s",
+                DOMAIN, instance, ObjectName.quote(queryMetrics.method), ObjectName.quote(queryMetrics.core)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(queryMetrics, queryMetrics.name);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Unable to register the Solr adapter metrics MBean.", e);
+            queryMetrics.name = null;
+        }
+        return queryMetrics;
+    }
+
+    private static final class QueryMetrics implements SolrQueryMetrics, SolrQueryMetricsMXBean {
+        private static final int STATUSES = 600;
+
+        private final String method;
+        private final String core;
+        private volatile ObjectName name;
+
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram parse = new LatencyHistogram();
+        private final LatencyHistogram network = new LatencyHistogram();
+        private final LatencyHistogram decode = new LatencyHistogram();
+        private final LatencyHistogram qTime = new LatencyHistogram();
+        private final LongAdder failedCalls = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder requestBytesSent = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder bytesDecoded = new LongAdder();
+        private final AtomicLongArray errorsByStatus = new AtomicLongArray(STATUSES);
+
+        QueryMetrics(String method, String core) {
+            this.method = method;
+            this.core = core;
+        }
+
+        @Override
+        public void recordCall(long totalNanos, int recordCount, boolean failed) {
+            total.recordNanos(totalNanos);
+            records.add(recordCount);
+            if (failed) failedCalls.increment();
+        }
+
+        @Override
+        public void recordParse(long nanos) {
+            parse.recordNanos(nanos);
+        }
+
+        @Override
+        public void recordRequest(long bodyBytes, long bytesSent) {
+            requestBytes.add(bodyBytes);
+            requestBytesSent.add(bytesSent);
+        }
+
+        @Override
+        public void recordResponse(long networkNanos, long decodeNanos, long bytesReceived, long decodedBytes,
+            int status, boolean failed)
+        {
+            requests.increment();
+            network.recordNanos(networkNanos);
+            if (status != 0) decode.recordNanos(decodeNanos);
+            bytes.add(bytesReceived);
+            bytesDecoded.add(decodedBytes);
+            if (failed) errorsByStatus.incrementAndGet(status >= 0 && status < STATUSES ? status : 0);
+        }
+
+        @Override
+        public void recordQTime(long millis) {
+            qTime.record(millis * 1000);
+        }
+
+        @Override public String getMethod() { return method; }
+        @Override public String getCore() { return core; }
+        @Override public long getCallCount() { return total.getCount(); }
+        @Override public long getFailedCallCount() { return failedCalls.sum(); }
+        @Override public long getRecordsReturned() { return records.sum(); }
+        @Override public long getRequestCount() { return requests.sum(); }
+        @Override public long getRequestBytes() { return requestBytes.sum(); }
+        @Override public long getRequestBytesSent() { return requestBytesSent.sum(); }
+        @Override public long getBytesReceived() { return bytes.sum(); }
+        @Override public long getBytesDecoded() { return bytesDecoded.sum(); }
+        @Override public LatencyHistogram.Summary getTotalLatency() { return total.getSummary(); }
+        @Override public LatencyHistogram.Summary getParseLatency() { return parse.getSummary(); }
+        @Override public LatencyHistogram.Summary getNetworkLatency() { return network.getSummary(); }
+        @Override public LatencyHistogram.Summary getDecodeLatency() { return decode.getSummary(); }
+        @Override public LatencyHistogram.Summary getQTime() { return qTime.getSummary(); }
+
+        @Override
+        public Map<Integer,Long> getErrorsByStatus() {
+            Map<Integer,Long> result = new TreeMap<>();
+            for (int status = 0; status < STATUSES; status++) {
+                long errors = errorsByStatus.get(status);
+                if (errors > 0) result.put(status, errors);
+            }
+            return result;
+        }
+    }
+
+}
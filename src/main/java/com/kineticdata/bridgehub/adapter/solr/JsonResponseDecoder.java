@@ -0,0 +1,187 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.minidev.json.JSONArray;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streams a Solr JSON response (<code>wt=json</code>) off the wire, handing each element of
+ * <code>response.docs</code> to the listener as soon as its closing brace has been read. Only the
+ * document currently being decoded is held in memory, the rest of the response (response header,
+ * echoed parameters, etc.) is skipped over without being materialized.
+ *
+ * Documents are built from the same container and number types that JsonPath produces when it
+ * parses a full response (LinkedHashMap objects, JSONArray arrays and Integer values where they
+ * fit) so records look the same regardless of which path decoded them.
+ */
+class JsonResponseDecoder extends SolrResponseDecoder implements ContentHandler {
+
+    // Object keys leading to the current position while outside of a document (innermost first).
+    private final ArrayDeque<String> path = new ArrayDeque<>();
+    // Number of JSON containers open while outside of a document.
+    private int depth;
+    // Depth of the response.docs array while it is being read, otherwise -1.
+    private int documentsDepth = -1;
+    // Containers and keys of the document currently being built.
+    private final ArrayDeque<Object> values = new ArrayDeque<>();
+    private final ArrayDeque<String> keys = new ArrayDeque<>();
+
+    JsonResponseDecoder(DocumentListener listener) {
+        super(listener);
+    }
+
+    @Override
+    public JsonResponseDecoder read(InputStream content, Charset charset) throws IOException, BridgeError {
+        try {
+            new JSONParser().parse(new InputStreamReader(content, charset), this);
+        } catch (ParseException exceptionDetails) {
+            throw new BridgeError("The Solr response did not parse successfully as JSON.", exceptionDetails);
+        }
+        return this;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONTENT HANDLER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public void startJSON() {
+        path.clear();
+        values.clear();
+        keys.clear();
+        depth = 0;
+        documentsDepth = -1;
+    }
+
+    @Override
+    public void endJSON() {}
+
+    @Override
+    public boolean startObject() {
+        if (isBuilding() || depth == documentsDepth) {
+            values.push(new LinkedHashMap<String,Object>());
+        } else {
+            depth++;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObject() {
+        if (isBuilding()) {
+            Map<String,Object> object = (Map<String,Object>)values.pop();
+            if (isBuilding()) {
+                add(object);
+            } else {
+                document(object);
+            }
+        } else {
+            depth--;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        if (isBuilding()) {
+            keys.push(key);
+        } else {
+            path.push(key);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        if (isBuilding()) {
+            keys.pop();
+        } else {
+            path.pop();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        if (isBuilding()) {
+            values.push(new JSONArray());
+        } else {
+            boolean isDocuments = isAt("response", "docs");
+            depth++;
+            if (isDocuments) documentsDepth = depth;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        if (isBuilding()) {
+            add(values.pop());
+        } else {
+            if (depth == documentsDepth) documentsDepth = -1;
+            depth--;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (isBuilding()) {
+            add(normalize(value));
+        } else if (value instanceof Number && isAt("response", "numFound")) {
+            numFound = ((Number)value).longValue();
+        } else if (value instanceof Number && isAt("responseHeader", "QTime")) {
+            qTime = ((Number)value).longValue();
+        } else if (value instanceof String && depth == 1 && path.size() == 1
+            && "nextCursorMark".equals(path.peek()))
+        {
+            nextCursorMark = (String)value;
+        }
+        return true;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private boolean isBuilding() {
+        return values.isEmpty() == false;
+    }
+
+    /** True when positioned at root.parent.child and every container on the way is an object. */
+    private boolean isAt(String parent, String child) {
+        return depth == 2 && path.size() == 2
+            && child.equals(path.peekFirst()) && parent.equals(path.peekLast());
+    }
+
+    private void add(Object value) {
+        Object container = values.peek();
+        if (container instanceof Map) {
+            ((Map<String,Object>)container).put(keys.peek(), value);
+        } else {
+            ((List<Object>)container).add(value);
+        }
+    }
+
+    /** json-simple reads every integer as a Long, JsonPath uses an Integer when the value fits. */
+    private static Object normalize(Object value) {
+        if (value instanceof Long) {
+            long longValue = (Long)value;
+            if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+                return (int)longValue;
+            }
+        }
+        return value;
+    }
+
+}
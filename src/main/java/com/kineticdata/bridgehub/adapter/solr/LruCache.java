@@ -0,0 +1,44 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread safe least recently used cache. Used for the compiled artifacts the adapter
+ * derives from bridge configuration (field lists, query templates), which come from a handful of
+ * bridge models and are looked up far more often than they change.
+ */
+class LruCache<K,V> {
+
+    private final LinkedHashMap<K,V> entries;
+
+    LruCache(final int maximumSize) {
+        this.entries = new LinkedHashMap<K,V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Escapes parameter values as they are bound into a query, in a single scan that appends
+ * straight to the query being built.
+ *
+ * The Lucene escaping produces exactly what the original chain of regular expression replacements
+ * produced: a backslash before each reserved character and whitespace character, before each
+ * <code>||</code> and <code>&amp;&amp;</code>, and two before the whole words AND, OR and NOT.
+ * The JSON escaping produces exactly what json-simple's JSONValue.escape produces.
+ */
+final class QueryEscaper {
+
+    // http://lucene.apache.org/core/4_0_0/queryparser/org/apache/lucene/queryparser/classic/package-summary.html#Escaping_Special_Characters
+    private static final String LUCENE_RESERVED = "*+-=~><\"?^${}():!/[]\\";
+    private static final boolean[] IS_LUCENE_RESERVED = new boolean[128];
+    static {
+        for (char reserved : LUCENE_RESERVED.toCharArray()) {
+            IS_LUCENE_RESERVED[reserved] = true;
+        }
+        // The \s whitespace characters.
+        for (char whitespace : " \t\n\u000B\f\r".toCharArray()) {
+            IS_LUCENE_RESERVED[whitespace] = true;
+        }
+    }
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    /**
+     * Word boundaries are left to the regular expression engine, which decides them differently
+     * between Java versions, it is only consulted once a keyword has been found.
+     */
+    private static final Pattern WORD_BOUNDARY = Pattern.compile("\\b");
+
+    private QueryEscaper() {}
+
+    /** Appends the value escaped for a Lucene query. */
+    static void appendLucene(StringBuilder target, String value) {
+        Matcher boundary = null;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if (ch < 128 && IS_LUCENE_RESERVED[ch]) {
+                target.append('\\').append(ch);
+            } else if ((ch == '|' || ch == '&') && i + 1 < length && value.charAt(i + 1) == ch) {
+                target.append('\\').append(ch).append(ch);
+                i++;
+            } else if (ch == 'A' || ch == 'O' || ch == 'N') {
+                int keywordLength = keywordLength(value, i);
+                if (keywordLength > 0) {
+                    if (boundary == null) {
+                        boundary = WORD_BOUNDARY.matcher(value).useTransparentBounds(true);
+                    }
+                    if (isBoundary(boundary, i, length) && isBoundary(boundary, i + keywordLength, length)) {
+                        target.append("\\\\").append(value, i, i + keywordLength);
+                        i += keywordLength - 1;
+                        continue;
+                    }
+                }
+                target.append(ch);
+            } else {
+                target.append(ch);
+            }
+        }
+    }
+
+    /** Appends the value escaped for a JSON string. */
+    static void appendJson(StringBuilder target, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"': target.append("\\\""); break;
+                case '\\': target.append("\\\\"); break;
+                case '\b': target.append("\\b"); break;
+                case '\f': target.append("\\f"); break;
+                case '\n': target.append("\\n"); break;
+                case '\r': target.append("\\r"); break;
+                case '\t': target.append("\\t"); break;
+                case '/': target.append("\\/"); break;
+                default:
+                    if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                        target.append("\\u")
+                            .append(HEX[(ch >> 12) & 0xF])
+                            .append(HEX[(ch >> 8) & 0xF])
+                            .append(HEX[(ch >> 4) & 0xF])
+                            .append(HEX[ch & 0xF]);
+                    } else {
+                        target.append(ch);
+                    }
+            }
+        }
+    }
+
+    /**
+     * The value a Lucene query matches exactly when the query is nothing but that value in the
+     * given field, such as <code>IW-02</code> for <code>id:IW\-02</code> or
+     * <code>id:"IW-02"</code>. Backslash escapes are undone the way the query parser undoes
+     * them. Null for any other query, such as one with a wildcard, a range, a boost or more than
+     * one clause.
+     */
+    static String readFieldValue(String query, String field) {
+        String trimmed = trimUnescaped(query);
+        int start = field.length() + 1;
+        if (trimmed.length() <= start || trimmed.startsWith(field) == false || trimmed.charAt(start - 1) != ':') {
+            return null;
+        }
+        boolean phrase = trimmed.charAt(start) == '"';
+        StringBuilder value = new StringBuilder();
+        int length = trimmed.length();
+        for (int i = phrase ? start + 1 : start; i < length; i++) {
+            char ch = trimmed.charAt(i);
+            if (ch == '\\') {
+                if (++i == length) return null;
+                value.append(trimmed.charAt(i));
+            } else if (phrase) {
+                // The closing quote has to end the query.
+                if (ch == '"') return (i == length - 1 && value.length() > 0) ? value.toString() : null;
+                value.append(ch);
+            } else if ((ch < 128 && IS_LUCENE_RESERVED[ch]) || ch == '\u3000') {
+                return null;
+            } else if ((ch == '|' || ch == '&') && i + 1 < length && trimmed.charAt(i + 1) == ch) {
+                // Only a doubled | or & is an operator.
+                return null;
+            } else {
+                value.append(ch);
+            }
+        }
+        return (phrase || value.length() == 0) ? null : value.toString();
+    }
+
+    /** Trims the whitespace around a query, but not an escaped whitespace character at its end. */
+    private static String trimUnescaped(String query) {
+        int begin = 0;
+        int end = query.length();
+        while (begin < end && query.charAt(begin) <= ' ') begin++;
+        while (end > begin && query.charAt(end - 1) <= ' ') {
+            int backslashes = 0;
+            while (end - 2 - backslashes >= begin && query.charAt(end - 2 - backslashes) == '\\') backslashes++;
+            if (backslashes % 2 == 1) break;
+            end--;
+        }
+        return query.substring(begin, end);
+    }
+
+    /** The length of the AND, OR or NOT starting at the index, 0 if there is none. */
+    private static int keywordLength(String value, int index) {
+        if (value.startsWith("AND", index) || value.startsWith("NOT", index)) return 3;
+        if (value.startsWith("OR", index)) return 2;
+        return 0;
+    }
+
+    private static boolean isBoundary(Matcher boundary, int index, int length) {
+        return boundary.region(index, length).lookingAt();
+    }
+
+}
@@ -0,0 +1,9 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.CompletableFuture;
+
+/** A bridge query that may be answered from the result cache or a concurrent identical call. */
+interface QueryExecution<T> {
+    CompletableFuture<T> execute() throws BridgeError;
+}
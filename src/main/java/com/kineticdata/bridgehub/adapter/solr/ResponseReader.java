@@ -0,0 +1,13 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Consumes the body of a successful Solr response while it is being read from the connection.
+ */
+interface ResponseReader<T> {
+    T read(InputStream content, Charset charset) throws IOException, BridgeError;
+}
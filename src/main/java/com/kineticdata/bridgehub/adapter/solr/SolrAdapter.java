@@ -1,7 +1,6 @@
 package com.kineticdata.bridgehub.adapter.solr;
 
 import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 import com.kineticdata.bridgehub.adapter.BridgeAdapter;
 import com.kineticdata.bridgehub.adapter.BridgeError;
@@ -13,26 +12,71 @@ import com.kineticdata.bridgehub.adapter.RecordList;
 import com.kineticdata.commons.v1.config.ConfigurableProperty;
 import com.kineticdata.commons.v1.config.ConfigurablePropertyMap;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.util.EntityUtils;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.impl.client.HttpClients;
+import org.json.simple.JSONValue;
 import org.slf4j.LoggerFactory;
 
 public class SolrAdapter implements BridgeAdapter {
@@ -63,19 +107,196 @@ public class SolrAdapter implements BridgeAdapter {
 
     private String username;
     private String password;
+    /** The first configured Solr URL, which request urls are reported against. */
     private String apiEndpoint;
+    /** The Solr nodes queries are load balanced across. */
+    private SolrNodePool nodePool;
+    /** Non-blocking pooled HTTP client shared by every Solr call made by this adapter instance. */
+    private CloseableHttpAsyncClient client;
+    /** Caps the number of Solr queries in flight. */
+    private SolrRequestLimiter requestLimiter;
+    /** The bulkhead of each core queried so far, empty unless core concurrency limits are configured. */
+    private final Map<String,SolrBulkhead> bulkheads = new ConcurrentHashMap<String,SolrBulkhead>();
+    /** The core concurrency limits and queue depths by core, the one for every other core under "*". */
+    private Map<String,Integer> coreConcurrencyLimits = Collections.emptyMap();
+    private Map<String,Integer> coreQueueDepths = Collections.emptyMap();
+    /** Fails queries fast while their core is unhealthy, null when disabled. */
+    private SolrCircuitBreaker circuitBreaker;
+    /** Sends a duplicate of slow queries, null unless hedging is configured. */
+    private SolrHedger hedger;
+    /** Request bodies larger than this many bytes are sent gzip compressed, 0 never compresses. */
+    private int requestCompressionThreshold;
+    /** The wt queries are answered in unless their metadata chooses another. */
+    private String responseFormat = RESPONSE_FORMAT_JSON;
+    /** Batches concurrent lookups by id into one real-time get, null unless configured. */
+    private SolrMicroBatcher<String,Object> retrieveBatcher;
+    /** Batches concurrent counts on a core into one JSON Facet request, null unless configured. */
+    private SolrMicroBatcher<String,Long> countBatcher;
+    /** Pages with more rows than this are split into concurrent windows, 0 when disabled. */
+    private int splitFetchPageSize;
+    /** The most windows one page is split into, and in flight across all split pages. */
+    private int splitFetchParallelism;
+    private int splitFetchMaxConcurrency;
+    private final AtomicInteger splitWindowsInFlight = new AtomicInteger();
+    /** Where latencies and counters are recorded, published over JMX unless replaced. */
+    private SolrMetricsRegistry metricsRegistry = new JmxMetricsRegistry();
+    /** Runs the response readers, which pull response bodies off the transport as streams. */
+    private ExecutorService decodeExecutor;
+    /** Parses the small buffered admin and schema API responses, apart from the streaming decodes. */
+    private ExecutorService adminExecutor;
+    /** Cache of bridge results, null unless the result cache is enabled. */
+    private SolrResultCache resultCache;
+    /** Runs the adapter's background tasks, such as polling core index versions. */
+    private ScheduledExecutorService scheduler;
+    /**
+     * The last index version seen for each core with cached results, for a SolrCloud collection
+     * the versions of the leader cores of its shards.
+     */
+    private final Map<String,String> indexVersions = new ConcurrentHashMap<String,String>();
+    /** The live node discovery in flight, a refresh is skipped while the previous one is not done. */
+    private volatile CompletableFuture<Void> liveNodeDiscovery = CompletableFuture.completedFuture(null);
+    /** The index version poll in flight, a poll is skipped while the previous one is not done. */
+    private volatile CompletableFuture<Void> indexVersionPoll = CompletableFuture.completedFuture(null);
+    /** Shares one Solr request between identical concurrent bridge calls. */
+    private final SolrSingleFlight singleFlight = new SolrSingleFlight();
+    /**
+     * Answers read from the schema API on first use, keyed by their path: the uniqueKey field of
+     * each core and whether each field has docValues.
+     */
+    private final Map<String,Object> schemaAnswers = new ConcurrentHashMap<String,Object>();
+    /** When a schema API path that could not be read is read again. */
+    private final Map<String,Long> schemaRetries = new ConcurrentHashMap<String,Long>();
+    /** The schema API reads in flight, so the first calls that need an answer share one request. */
+    private final Map<String,CompletableFuture<Object>> schemaReads =
+        new ConcurrentHashMap<String,CompletableFuture<Object>>();
+    /** The cursorMark that continues each cursor chain at a given offset, null in offset mode. */
+    private LruCache<String,String> cursorMarks;
 
     /** Defines the collection of property names for the adapter */
     public static class Properties {
         public static final String USERNAME = "Username";
         public static final String PASSWORD = "Password";
         public static final String API_URL = "Solr URL";
+        public static final String MAX_CONNECTIONS = "Max Connections";
+        public static final String MAX_CONNECTIONS_PER_ROUTE = "Max Connections Per Route";
+        public static final String CONNECTION_IDLE_TIMEOUT = "Connection Idle Timeout (Seconds)";
+        public static final String CONNECTION_KEEP_ALIVE = "Connection Keep Alive (Seconds)";
+        public static final String RESULT_CACHE_SIZE = "Result Cache Size";
+        public static final String RESULT_CACHE_MAX_RECORDS = "Result Cache Max Records";
+        public static final String RESULT_CACHE_TTL = "Result Cache TTL (Seconds)";
+        public static final String RESULT_CACHE_INDEX_POLL = "Result Cache Index Version Poll (Seconds)";
+        public static final String PAGINATION_MODE = "Pagination Mode";
+        public static final String CURSOR_CACHE_SIZE = "Cursor Cache Size";
+        public static final String MAX_CONCURRENT_REQUESTS = "Max Concurrent Requests";
+        public static final String REQUEST_QUEUE_TIMEOUT = "Request Queue Timeout (Seconds)";
+        public static final String DECODE_THREADS = "Decode Threads";
+        public static final String CORE_CONCURRENCY_LIMIT = "Core Concurrency Limit";
+        public static final String CORE_QUEUE_DEPTH = "Core Queue Depth";
+        public static final String DISCOVER_LIVE_NODES = "Discover Live Nodes";
+        public static final String NODE_PROBE_INTERVAL = "Node Probe Interval (Seconds)";
+        public static final String CONNECT_TIMEOUT = "Connect Timeout (Seconds)";
+        public static final String READ_TIMEOUT = "Read Timeout (Seconds)";
+        public static final String CONNECTION_REQUEST_TIMEOUT = "Connection Request Timeout (Seconds)";
+        public static final String CIRCUIT_BREAKER_THRESHOLD = "Circuit Breaker Failure Threshold";
+        public static final String CIRCUIT_BREAKER_OPEN_DURATION = "Circuit Breaker Open Duration (Seconds)";
+        public static final String HEDGE_DELAY = "Hedge Delay (Milliseconds)";
+        public static final String HEDGE_DELAY_PERCENTILE = "Hedge Delay Percentile";
+        public static final String HEDGE_BUDGET = "Hedge Budget (Percent)";
+        public static final String REQUEST_COMPRESSION_THRESHOLD = "Request Compression Threshold (Bytes)";
+        public static final String RESPONSE_FORMAT = "Response Format";
+        public static final String RETRIEVE_BATCH_SIZE = "Retrieve Batch Size";
+        public static final String RETRIEVE_BATCH_WINDOW = "Retrieve Batch Window (Milliseconds)";
+        public static final String COUNT_BATCH_SIZE = "Count Batch Size";
+        public static final String COUNT_BATCH_WINDOW = "Count Batch Window (Milliseconds)";
+        public static final String SPLIT_FETCH_PAGE_SIZE = "Split Fetch Page Size";
+        public static final String SPLIT_FETCH_PARALLELISM = "Split Fetch Parallelism";
+        public static final String SPLIT_FETCH_MAX_CONCURRENCY = "Split Fetch Max Concurrency";
     }
 
+    /** Values of the pagination mode property. */
+    public static final String PAGINATION_MODE_OFFSET = "Offset";
+    public static final String PAGINATION_MODE_CURSOR = "Cursor";
+    /** Values of the response format property and query metadata, the wt Solr answers in. */
+    public static final String RESPONSE_FORMAT_JSON = "json";
+    public static final String RESPONSE_FORMAT_JAVABIN = "javabin";
+
+    /** Defaults used when the connection pool properties are left blank. */
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 30;
+    private static final int DEFAULT_CONNECTION_KEEP_ALIVE = 60;
+    /** How often expired and idle pooled connections are closed. */
+    private static final int CONNECTION_EVICTION_SECONDS = 5;
+    /** How long an idle decode or admin thread is kept. */
+    private static final int THREAD_KEEP_ALIVE_SECONDS = 60;
+    /** Number of threads that parse admin and schema API responses. */
+    private static final int ADMIN_THREADS = 2;
+    /** Defaults used when the request concurrency properties are left blank. */
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 200;
+    private static final int DEFAULT_REQUEST_QUEUE_TIMEOUT = 30;
+    private static final int DEFAULT_CORE_QUEUE_DEPTH = 50;
+    /** Default interval of the ejected node probe and live node refresh. */
+    private static final int DEFAULT_NODE_PROBE_INTERVAL = 10;
+    /** Defaults used when the timeout properties are left blank, 0 waits forever. */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    private static final int DEFAULT_READ_TIMEOUT = 60;
+    private static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 10;
+    /** Defaults used by the circuit breaker, a threshold of 0 disables it. */
+    private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+    /** Default share of queries that may be hedged, hedging is off unless a delay is configured. */
+    private static final int DEFAULT_HEDGE_BUDGET = 5;
+    /** Defaults used by the result cache, which is disabled unless a size is configured. */
+    private static final int DEFAULT_RESULT_CACHE_MAX_RECORDS = 10000;
+    private static final int DEFAULT_RESULT_CACHE_TTL = 60;
+    /** Default time concurrent calls are gathered into a batch, batching is off unless a size is configured. */
+    private static final int DEFAULT_BATCH_WINDOW = 2;
+    /** Defaults used when the split fetch is configured but its limits are left blank. */
+    private static final int DEFAULT_SPLIT_FETCH_PARALLELISM = 4;
+    private static final int DEFAULT_SPLIT_FETCH_MAX_CONCURRENCY = 16;
+    /** How long to wait before reading a schema API path that could not be read again. */
+    private static final long SCHEMA_RETRY_MILLIS = 60000;
+    /** Default number of cursorMarks remembered for continuing paged searches. */
+    private static final int DEFAULT_CURSOR_CACHE_SIZE = 1000;
+
     private final ConfigurablePropertyMap properties = new ConfigurablePropertyMap(
         new ConfigurableProperty(Properties.USERNAME),
         new ConfigurableProperty(Properties.PASSWORD).setIsSensitive(true),
-        new ConfigurableProperty(Properties.API_URL)
+        new ConfigurableProperty(Properties.API_URL),
+        new ConfigurableProperty(Properties.MAX_CONNECTIONS),
+        new ConfigurableProperty(Properties.MAX_CONNECTIONS_PER_ROUTE),
+        new ConfigurableProperty(Properties.CONNECTION_IDLE_TIMEOUT),
+        new ConfigurableProperty(Properties.CONNECTION_KEEP_ALIVE),
+        new ConfigurableProperty(Properties.RESULT_CACHE_SIZE),
+        new ConfigurableProperty(Properties.RESULT_CACHE_MAX_RECORDS),
+        new ConfigurableProperty(Properties.RESULT_CACHE_TTL),
+        new ConfigurableProperty(Properties.RESULT_CACHE_INDEX_POLL),
+        new ConfigurableProperty(Properties.PAGINATION_MODE),
+        new ConfigurableProperty(Properties.CURSOR_CACHE_SIZE),
+        new ConfigurableProperty(Properties.MAX_CONCURRENT_REQUESTS),
+        new ConfigurableProperty(Properties.REQUEST_QUEUE_TIMEOUT),
+        new ConfigurableProperty(Properties.DECODE_THREADS),
+        new ConfigurableProperty(Properties.CORE_CONCURRENCY_LIMIT),
+        new ConfigurableProperty(Properties.CORE_QUEUE_DEPTH),
+        new ConfigurableProperty(Properties.DISCOVER_LIVE_NODES),
+        new ConfigurableProperty(Properties.NODE_PROBE_INTERVAL),
+        new ConfigurableProperty(Properties.CONNECT_TIMEOUT),
+        new ConfigurableProperty(Properties.READ_TIMEOUT),
+        new ConfigurableProperty(Properties.CONNECTION_REQUEST_TIMEOUT),
+        new ConfigurableProperty(Properties.CIRCUIT_BREAKER_THRESHOLD),
+        new ConfigurableProperty(Properties.CIRCUIT_BREAKER_OPEN_DURATION),
+        new ConfigurableProperty(Properties.HEDGE_DELAY),
+        new ConfigurableProperty(Properties.HEDGE_DELAY_PERCENTILE),
+        new ConfigurableProperty(Properties.HEDGE_BUDGET),
+        new ConfigurableProperty(Properties.REQUEST_COMPRESSION_THRESHOLD),
+        new ConfigurableProperty(Properties.RESPONSE_FORMAT),
+        new ConfigurableProperty(Properties.RETRIEVE_BATCH_SIZE),
+        new ConfigurableProperty(Properties.RETRIEVE_BATCH_WINDOW),
+        new ConfigurableProperty(Properties.COUNT_BATCH_SIZE),
+        new ConfigurableProperty(Properties.COUNT_BATCH_WINDOW),
+        new ConfigurableProperty(Properties.SPLIT_FETCH_PAGE_SIZE),
+        new ConfigurableProperty(Properties.SPLIT_FETCH_PARALLELISM),
+        new ConfigurableProperty(Properties.SPLIT_FETCH_MAX_CONCURRENCY)
     );
 
 
@@ -87,9 +308,219 @@ public class SolrAdapter implements BridgeAdapter {
     public void initialize() throws BridgeError {
         this.username = properties.getValue(Properties.USERNAME);
         this.password = properties.getValue(Properties.PASSWORD);
-        // Remove any trailing forward slash.
-        this.apiEndpoint = properties.getValue(Properties.API_URL).replaceFirst("(\\/)$", "");
-        testAuthenticationValues(this.apiEndpoint, this.username, this.password);
+        // The Solr URL can list several nodes separated by commas, remove any trailing forward slash.
+        List<String> baseUrls = new ArrayList<String>();
+        for (String url : StringUtils.split(StringUtils.defaultString(properties.getValue(Properties.API_URL)), ',')) {
+            if (StringUtils.isNotBlank(url)) baseUrls.add(url.trim().replaceFirst("(\\/)$", ""));
+        }
+        if (baseUrls.isEmpty()) {
+            throw new BridgeError(String.format("The \"%s\" property is required.", Properties.API_URL));
+        }
+        this.apiEndpoint = baseUrls.get(0);
+        // Release the pool of a previous initialization before building a new one.
+        destroy();
+        this.client = buildHttpClient();
+        // The reader of a response pulls its body through a blocking stream, so a response holds
+        // a decode thread for as long as it streams in. By default there is a thread for each
+        // query the request limiter lets through. A response beyond the decode threads waits for
+        // one with its connection's input suspended once the buffer fills up.
+        int decodeThreads = Math.max(1, getIntegerProperty(Properties.DECODE_THREADS,
+            getIntegerProperty(Properties.MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS)));
+        this.decodeExecutor = threadPool(decodeThreads, "solr-adapter-decoder");
+        this.adminExecutor = threadPool(ADMIN_THREADS, "solr-adapter-admin");
+        this.requestCompressionThreshold = getIntegerProperty(Properties.REQUEST_COMPRESSION_THRESHOLD, 0);
+        String format = properties.getValue(Properties.RESPONSE_FORMAT);
+        this.responseFormat = StringUtils.isBlank(format)
+            ? RESPONSE_FORMAT_JSON : toResponseFormat(String.format("\"%s\" property", Properties.RESPONSE_FORMAT), format);
+        this.requestLimiter = new SolrRequestLimiter(
+            getIntegerProperty(Properties.MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS),
+            TimeUnit.SECONDS.toMillis(getIntegerProperty(Properties.REQUEST_QUEUE_TIMEOUT, DEFAULT_REQUEST_QUEUE_TIMEOUT)),
+            getScheduler());
+        this.coreConcurrencyLimits = getPerCoreProperty(Properties.CORE_CONCURRENCY_LIMIT);
+        this.coreQueueDepths = getPerCoreProperty(Properties.CORE_QUEUE_DEPTH);
+        this.nodePool = new SolrNodePool(baseUrls);
+        int failureThreshold = getIntegerProperty(Properties.CIRCUIT_BREAKER_THRESHOLD, DEFAULT_CIRCUIT_BREAKER_THRESHOLD);
+        if (failureThreshold > 0) {
+            this.circuitBreaker = new SolrCircuitBreaker(failureThreshold, TimeUnit.SECONDS.toMillis(
+                getIntegerProperty(Properties.CIRCUIT_BREAKER_OPEN_DURATION, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION)));
+        }
+        int hedgeDelay = getIntegerProperty(Properties.HEDGE_DELAY, 0);
+        int hedgePercentile = getIntegerProperty(Properties.HEDGE_DELAY_PERCENTILE, 0);
+        if (hedgePercentile >= 100) {
+            throw new BridgeError(String.format(
+                "The \"%s\" property must be below 100 but was %d.", Properties.HEDGE_DELAY_PERCENTILE, hedgePercentile));
+        }
+        if (hedgeDelay > 0 || hedgePercentile > 0) {
+            this.hedger = new SolrHedger(hedgeDelay, hedgePercentile,
+                getIntegerProperty(Properties.HEDGE_BUDGET, DEFAULT_HEDGE_BUDGET), getScheduler());
+        }
+        int retrieveBatchSize = getIntegerProperty(Properties.RETRIEVE_BATCH_SIZE, 0);
+        if (retrieveBatchSize > 1) {
+            this.retrieveBatcher = new SolrMicroBatcher<String,Object>(retrieveBatchSize,
+                getIntegerProperty(Properties.RETRIEVE_BATCH_WINDOW, DEFAULT_BATCH_WINDOW), getScheduler());
+        }
+        this.splitFetchPageSize = getIntegerProperty(Properties.SPLIT_FETCH_PAGE_SIZE, 0);
+        this.splitFetchParallelism = getIntegerProperty(Properties.SPLIT_FETCH_PARALLELISM, DEFAULT_SPLIT_FETCH_PARALLELISM);
+        this.splitFetchMaxConcurrency = getIntegerProperty(Properties.SPLIT_FETCH_MAX_CONCURRENCY,
+            DEFAULT_SPLIT_FETCH_MAX_CONCURRENCY);
+        int countBatchSize = getIntegerProperty(Properties.COUNT_BATCH_SIZE, 0);
+        if (countBatchSize > 1) {
+            this.countBatcher = new SolrMicroBatcher<String,Long>(countBatchSize,
+                getIntegerProperty(Properties.COUNT_BATCH_WINDOW, DEFAULT_BATCH_WINDOW), getScheduler());
+        }
+        // Every reachable node must accept the credentials, unreachable nodes are ejected until
+        // the background probe reaches them.
+        BridgeError unreachable = null;
+        for (SolrNodePool.Node node : nodePool.getNodes()) {
+            try {
+                testAuthenticationValues(node.getBaseUrl(), this.username, this.password);
+            } catch (BridgeError e) {
+                if (e.getCause() instanceof IOException == false) throw e;
+                logger.warn(String.format("Unable to reach the Solr node %s.", node.getBaseUrl()), e);
+                nodePool.eject(node);
+                unreachable = e;
+            }
+        }
+        if (unreachable != null && isAnyNodeAvailable() == false) {
+            throw unreachable;
+        }
+        if (Boolean.parseBoolean(properties.getValue(Properties.DISCOVER_LIVE_NODES))) {
+            discoverLiveNodes().join();
+        }
+        int probeSeconds = getIntegerProperty(Properties.NODE_PROBE_INTERVAL, DEFAULT_NODE_PROBE_INTERVAL);
+        if (probeSeconds > 0) {
+            getScheduler().scheduleWithFixedDelay(
+                this::probeNodes, probeSeconds, probeSeconds, TimeUnit.SECONDS);
+        }
+
+        String paginationMode = properties.getValue(Properties.PAGINATION_MODE);
+        if (StringUtils.equalsIgnoreCase(paginationMode, PAGINATION_MODE_CURSOR)) {
+            this.cursorMarks = new LruCache<String,String>(
+                getIntegerProperty(Properties.CURSOR_CACHE_SIZE, DEFAULT_CURSOR_CACHE_SIZE));
+        } else if (StringUtils.isNotBlank(paginationMode)
+            && StringUtils.equalsIgnoreCase(paginationMode, PAGINATION_MODE_OFFSET) == false)
+        {
+            throw new BridgeError(String.format(
+                "The \"%s\" property must be one of %s but was \"%s\".", Properties.PAGINATION_MODE,
+                Arrays.asList(PAGINATION_MODE_OFFSET, PAGINATION_MODE_CURSOR), paginationMode));
+        }
+
+        int resultCacheSize = getIntegerProperty(Properties.RESULT_CACHE_SIZE, 0);
+        if (resultCacheSize > 0) {
+            this.resultCache = new SolrResultCache(
+                resultCacheSize,
+                getIntegerProperty(Properties.RESULT_CACHE_MAX_RECORDS, DEFAULT_RESULT_CACHE_MAX_RECORDS),
+                TimeUnit.SECONDS.toMillis(getIntegerProperty(Properties.RESULT_CACHE_TTL, DEFAULT_RESULT_CACHE_TTL))
+            );
+            int indexPollSeconds = getIntegerProperty(Properties.RESULT_CACHE_INDEX_POLL, 0);
+            if (indexPollSeconds > 0) {
+                getScheduler().scheduleWithFixedDelay(
+                    this::pollIndexVersions, indexPollSeconds, indexPollSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Closes the pooled HTTP client and stops the adapter's background threads. The adapter must
+     * be initialized again before it can be used after this has been called.
+     */
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        if (this.decodeExecutor != null) {
+            this.decodeExecutor.shutdownNow();
+            this.decodeExecutor = null;
+        }
+        if (this.adminExecutor != null) {
+            this.adminExecutor.shutdownNow();
+            this.adminExecutor = null;
+        }
+        this.requestLimiter = null;
+        this.bulkheads.clear();
+        this.circuitBreaker = null;
+        this.hedger = null;
+        this.retrieveBatcher = null;
+        this.countBatcher = null;
+        this.nodePool = null;
+        this.metricsRegistry.close();
+        this.resultCache = null;
+        this.cursorMarks = null;
+        this.indexVersions.clear();
+        this.indexVersionPoll = CompletableFuture.completedFuture(null);
+        this.liveNodeDiscovery = CompletableFuture.completedFuture(null);
+        this.schemaAnswers.clear();
+        this.schemaRetries.clear();
+        if (this.client != null) {
+            try {
+                this.client.close();
+            } catch (IOException e) {
+                logger.warn("Unable to cleanly close the Solr HTTP client.", e);
+            }
+            this.client = null;
+        }
+    }
+
+    /** The result cache of the adapter, or null when result caching is not enabled. */
+    public SolrResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /** Coalesces identical concurrent calls, its counters give the duplicate suppression rate. */
+    public SolrSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /** The Solr nodes queries are spread across, null before the adapter is initialized. */
+    public SolrNodePool getNodePool() {
+        return nodePool;
+    }
+
+    /** The per core circuit breaker, null when it is disabled. */
+    public SolrCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /** The registry metrics are recorded in. */
+    public SolrMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /** Replaces the default JMX metrics registry, such as to forward metrics elsewhere. */
+    public void setMetricsRegistry(SolrMetricsRegistry metricsRegistry) {
+        this.metricsRegistry.close();
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /** Hedges slow queries, null unless hedging is configured. */
+    public SolrHedger getHedger() {
+        return hedger;
+    }
+
+    /** Number of split fetch windows currently reserved, against the split fetch max concurrency. */
+    public int getSplitWindowsInFlight() {
+        return splitWindowsInFlight.get();
+    }
+
+    /** Batches concurrent retrieves by id, null unless a retrieve batch size is configured. */
+    public SolrMicroBatcher<String,Object> getRetrieveBatcher() {
+        return retrieveBatcher;
+    }
+
+    /** Batches concurrent counts, null unless a count batch size is configured. */
+    public SolrMicroBatcher<String,Long> getCountBatcher() {
+        return countBatcher;
+    }
+
+    /** Caps the number of Solr queries in flight, null before the adapter is initialized. */
+    public SolrRequestLimiter getRequestLimiter() {
+        return requestLimiter;
+    }
+
+    /** The bulkhead of each core queried so far, by core. */
+    public Map<String,SolrBulkhead> getBulkheads() {
+        return Collections.unmodifiableMap(bulkheads);
     }
 
     @Override
@@ -118,106 +549,602 @@ public class SolrAdapter implements BridgeAdapter {
 
     @Override
     public Count count(BridgeRequest request) throws BridgeError {
-
-        SolrQualificationParser solrParser = new SolrQualificationParser();
-        String jsonResponse = solrQuery("count", request, solrParser);
-        Long count = JsonPath.parse(jsonResponse).read("$.response.numFound", Long.class);
-        // Create and return a Count object.
-        return new Count(count);
-
+        return await(countAsync(request));
     }
 
     @Override
     public Record retrieve(BridgeRequest request) throws BridgeError {
+        return await(retrieveAsync(request));
+    }
 
-        SolrQualificationParser solrParser = new SolrQualificationParser();
-        String metadataRoot = solrParser.getJsonRootPath(request.getQuery());
-        String jsonRootPath = JSON_ROOT_DEFAULT;
-        if (StringUtils.isNotBlank(metadataRoot)) {
-            jsonRootPath = metadataRoot;
-        }
+    @Override
+    public RecordList search(BridgeRequest request) throws BridgeError {
+        return await(searchAsync(request));
+    }
 
-        String jsonResponse = solrQuery("search", request, solrParser);
-        DocumentContext jsonDocument = JsonPath.parse(jsonResponse);
-        Object objectRoot = jsonDocument.read(jsonRootPath);
-        Record recordResult = new Record(null);
+    /**
+     * Counts the matching documents without blocking the calling thread. The future completes
+     * with a BridgeError when the query fails, including when it waited longer than the request
+     * queue timeout for one of the concurrent request slots.
+     */
+    public CompletableFuture<Count> countAsync(BridgeRequest request) {
 
-        if (objectRoot instanceof List) {
-            List<Object> listRoot = (List)objectRoot;
-            if (listRoot.size() == 1) {
-                Map<String, Object> recordValues = new HashMap();
-                for (String field : request.getFields()) {
-                    try {
-                        recordValues.put(field, JsonPath.parse(listRoot.get(0)).read(field));
-                    } catch (InvalidPathException e) {
-                        recordValues.put(field, null);
-                    }
-                }
-                recordResult = new Record(recordValues);
+        long start = System.nanoTime();
+        SolrQueryMetrics metrics = getQueryMetrics("count", request);
+        try {
+            SolrQualificationParser solrParser = new SolrQualificationParser();
+            SolrRequest solrRequest = buildSolrRequest("count", request, solrParser, metrics);
+            // Only Lucene queries can be sent as query facets, JSON queries may carry filters and
+            // params. A query facet is not parsed with the defType of the request, nor is *:*.
+            String query = getParameter(solrRequest.getParameters(), "q");
+            QueryExecution<Count> execution;
+            if (query != null && countBatcher != null && getParameter(solrRequest.getParameters(), "defType") == null) {
+                execution = () -> batchedCount(solrRequest, query, metrics);
             } else {
-                throw new BridgeError("Multiple results matched an expected single match query");
+                execution = () -> solrQuery(solrRequest, metrics, countReader(solrRequest, metrics));
             }
-        } else if (objectRoot instanceof Map) {
-            Map<String, Object> recordValues = new HashMap();
-            for (String field : request.getFields()) {
+            return recordCall(metrics, start, cachedQuery("count", request, solrRequest, null, execution));
+        } catch (BridgeError | RuntimeException e) {
+            return recordCall(metrics, start, failed(e));
+        }
+
+    }
+
+    /** Builds the reader that maps the response of a count request to its count. */
+    private ResponseReader<Count> countReader(SolrRequest solrRequest, SolrQueryMetrics metrics) {
+        return (content, charset) -> {
+            SolrResponseDecoder decoder = SolrResponseDecoder.forFormat(solrRequest.getResponseFormat(), null)
+                .read(content, charset);
+            recordQTime(metrics, decoder);
+            // Create and return a Count object.
+            return new Count(getNumFound(decoder));
+        };
+    }
+
+    /**
+     * Counts the documents matching a query as part of a batch: concurrent counts on the same
+     * core with the same other parameters (such as filter queries) are sent as a single JSON
+     * Facet request with a query facet for each of them. A count that was not answered by a
+     * batch, because it was alone or the batch failed, is sent on its own so that one bad query
+     * does not fail the others.
+     */
+    private CompletableFuture<Count> batchedCount(SolrRequest solrRequest, String query, SolrQueryMetrics metrics) {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (NameValuePair parameter : solrRequest.getParameters()) {
+            if (parameter.getName().equals("q") == false) params.add(parameter);
+        }
+        String batchKey = solrRequest.getCore() + "\n" + URLEncodedUtils.format(params, StandardCharsets.UTF_8);
+        return countBatcher.submit(batchKey, query, queries -> facetCounts(solrRequest, params, queries, metrics))
+            .thenCompose(count -> count == null
+                ? solrQuery(solrRequest, metrics, countReader(solrRequest, metrics))
+                : CompletableFuture.completedFuture(new Count(count)));
+    }
+
+    /**
+     * Counts the documents matching each query with one query facet per distinct query over all
+     * of the documents of the core that match the other parameters, such as filter queries.
+     * Completes with nulls for the queries to count on their own.
+     */
+    private CompletableFuture<List<Long>> facetCounts(SolrRequest solrRequest, List<NameValuePair> otherParams,
+        List<String> queries, SolrQueryMetrics metrics) throws BridgeError
+    {
+        List<Long> unanswered = Collections.nCopies(queries.size(), null);
+        if (queries.size() == 1) {
+            return CompletableFuture.completedFuture(unanswered);
+        }
+        Map<String,String> facetNames = new LinkedHashMap<String,String>();
+        Map<String,Object> facets = new LinkedHashMap<String,Object>();
+        for (String query : queries) {
+            if (facetNames.containsKey(query) == false) {
+                String name = "q" + facetNames.size();
+                facetNames.put(query, name);
+                Map<String,Object> facet = new LinkedHashMap<String,Object>();
+                facet.put("type", "query");
+                facet.put("q", query);
+                facets.put(name, facet);
+            }
+        }
+        List<NameValuePair> params = new ArrayList<NameValuePair>(otherParams);
+        params.add(new BasicNameValuePair("q", "*:*"));
+        params.add(new BasicNameValuePair("json.facet", JSONValue.toJSONString(facets)));
+        String core = solrRequest.getCore();
+        SolrRequest facetRequest = new SolrRequest(core, buildSelectPath(core, "0", null, RESPONSE_FORMAT_JSON), params,
+            RESPONSE_FORMAT_JSON);
+        return solrQuery(facetRequest, metrics, (content, charset) -> {
+            Object response = JSONValue.parse(readString(content, charset));
+            Object header = response instanceof Map ? ((Map)response).get("responseHeader") : null;
+            if (header instanceof Map && ((Map)header).get("QTime") instanceof Number) {
+                metrics.recordQTime(((Number)((Map)header).get("QTime")).longValue());
+            }
+            Object buckets = response instanceof Map ? ((Map)response).get("facets") : null;
+            if (buckets instanceof Map == false) {
+                // A Solr without the JSON Facet API ignores the facets, each count is sent on its own.
+                return unanswered;
+            }
+            List<Long> counts = new ArrayList<Long>(queries.size());
+            for (String query : queries) {
+                // Solr leaves the query facets out when no document matches the base query.
+                Object bucket = ((Map)buckets).get(facetNames.get(query));
+                Object count = bucket instanceof Map ? ((Map)bucket).get("count") : null;
+                counts.add(count instanceof Number ? ((Number)count).longValue() : 0L);
+            }
+            return counts;
+        }).exceptionally(e -> {
+            // Solr rejects the whole batch when one of its queries is invalid, each count is then
+            // sent on its own so that only the invalid one fails. Any other failure, such as a
+            // timeout or a server error, fails every count of the batch.
+            Throwable cause = unwrap(e);
+            if (cause instanceof SolrResponseError && ((SolrResponseError)cause).getStatus() == 400) {
+                return unanswered;
+            }
+            throw e instanceof CompletionException ? (CompletionException)e : new CompletionException(cause);
+        });
+    }
+
+    /** Retrieves the single matching record without blocking the calling thread. */
+    public CompletableFuture<Record> retrieveAsync(BridgeRequest request) {
+
+        long start = System.nanoTime();
+        SolrQueryMetrics metrics = getQueryMetrics("retrieve", request);
+        try {
+            SolrQualificationParser solrParser = new SolrQualificationParser();
+            String metadataRoot = solrParser.getJsonRootPath(request.getQuery());
+            SolrRequest solrRequest = buildSolrRequest("retrieve", request, solrParser, metrics);
+            // Only a query can be a lookup by id, which is recognized with the core's uniqueKey.
+            CompletableFuture<String> uniqueKey = StringUtils.isBlank(metadataRoot)
+                && getParameter(solrRequest.getParameters(), "q") != null
+                ? getUniqueKey(solrRequest.getCore()) : CompletableFuture.completedFuture(null);
+            return recordCall(metrics, start, uniqueKey.thenCompose(key -> {
                 try {
-                    recordValues.put(field, JsonPath.parse(objectRoot).read(field));
-                } catch (InvalidPathException e) {
-                    recordValues.put(field, null);
+                    return retrieve(request, solrRequest, metadataRoot, key, metrics);
+                } catch (BridgeError | RuntimeException e) {
+                    return failed(e);
+                }
+            }));
+        } catch (BridgeError | RuntimeException e) {
+            return recordCall(metrics, start, failed(e));
+        }
+
+    }
+
+    private CompletableFuture<Record> retrieve(BridgeRequest request, SolrRequest solrRequest, String metadataRoot,
+        String uniqueKey, SolrQueryMetrics metrics) throws BridgeError
+    {
+        String id = getRealTimeGetId(solrRequest, uniqueKey);
+        if (id == null) {
+            return cachedQuery("retrieve", request, solrRequest, metadataRoot,
+                () -> solrQuery(solrRequest, metrics, retrieveReader(request, solrRequest, metadataRoot, metrics)));
+        }
+        SolrRequest retrieveRequest = buildRealTimeGetRequest(solrRequest, Collections.singleton(id),
+            getParameter(solrRequest.getParameters(), "fl"));
+        QueryExecution<Record> execution;
+        if (retrieveBatcher != null) {
+            execution = () -> batchedRealTimeGet(request, retrieveRequest, id, uniqueKey, metrics);
+        } else {
+            execution = () -> solrQuery(retrieveRequest, metrics,
+                retrieveReader(request, retrieveRequest, metadataRoot, metrics));
+        }
+        // A real-time get also sees updates that have not been committed, which do not change the
+        // index version the result cache is invalidated by, so it is only shared while in flight.
+        return singleFlight.execute(getQueryKey("retrieve", request, retrieveRequest, metadataRoot), execution);
+    }
+
+    /** Searches for a page of records without blocking the calling thread. */
+    public CompletableFuture<RecordList> searchAsync(BridgeRequest request) {
+
+        long start = System.nanoTime();
+        SolrQueryMetrics metrics = getQueryMetrics("search", request);
+        try {
+            SolrQualificationParser solrParser = new SolrQualificationParser();
+            String metadataRoot = solrParser.getJsonRootPath(request.getQuery());
+            SolrRequest solrRequest = buildSolrRequest("search", request, solrParser, metrics);
+            boolean export = StringUtils.isBlank(metadataRoot) && solrParser.isExport(request.getQuery());
+            // Exports, cursors and split pages use the core's uniqueKey as a tie-break.
+            CompletableFuture<String> uniqueKey = StringUtils.isBlank(metadataRoot)
+                && (export || cursorMarks != null || splitFetchPageSize > 0)
+                ? getUniqueKey(solrRequest.getCore()) : CompletableFuture.completedFuture(null);
+            return recordCall(metrics, start, uniqueKey.thenCompose(key -> {
+                try {
+                    return search(request, solrRequest, metadataRoot, export, key, metrics);
+                } catch (BridgeError | RuntimeException e) {
+                    return failed(e);
+                }
+            }));
+        } catch (BridgeError | RuntimeException e) {
+            return recordCall(metrics, start, failed(e));
+        }
+
+    }
+
+    private CompletableFuture<RecordList> search(BridgeRequest request, SolrRequest solrRequest, String metadataRoot,
+        boolean export, String uniqueKey, SolrQueryMetrics metrics) throws BridgeError
+    {
+        if (export) {
+            return cachedQuery("export", request, solrRequest, null,
+                () -> exportSearch(request, solrRequest, uniqueKey, metrics));
+        }
+        SolrRequest searchRequest = solrRequest;
+        if (cursorMarks != null && StringUtils.isBlank(metadataRoot)) {
+            searchRequest = buildCursorRequest(request, solrRequest, uniqueKey);
+        }
+        SolrRequest pageRequest = searchRequest;
+        int windows = StringUtils.isBlank(metadataRoot) ? getSplitWindowCount(request, pageRequest, uniqueKey) : 1;
+        if (windows > 1) {
+            return cachedQuery("search", request, pageRequest, null,
+                () -> splitSearch(request, pageRequest, uniqueKey, windows, metrics));
+        }
+        return cachedQuery("search", request, pageRequest, metadataRoot,
+            () -> solrQuery(pageRequest, metrics, searchReader(request, pageRequest, metadataRoot, metrics)));
+    }
+
+    /**
+     * The number of windows a page is split into: one for each split fetch page size worth of
+     * rows, up to the split fetch parallelism. Pages are only split when they are read with start
+     * and rows, and when the core's uniqueKey is known to make the sort a total order.
+     */
+    private int getSplitWindowCount(BridgeRequest request, SolrRequest solrRequest, String uniqueKey) {
+        if (splitFetchPageSize <= 0 || splitFetchParallelism < 2
+            || getParameter(solrRequest.getParameters(), "cursorMark") != null
+            || getParameter(solrRequest.getParameters(), "json") != null)
+        {
+            return 1;
+        }
+        int rows;
+        try {
+            rows = Integer.parseInt(getPageSize(request));
+            Integer.parseInt(getOffset(request));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+        if (rows <= splitFetchPageSize || uniqueKey == null) {
+            return 1;
+        }
+        return Math.min(splitFetchParallelism, (rows + splitFetchPageSize - 1) / splitFetchPageSize);
+    }
+
+    /**
+     * Reads a page as adjacent start and rows windows that are sent concurrently, and merges
+     * their records in order. The sort gets the uniqueKey as a tie-break so the windows line up.
+     * The windows are counted against the split fetch max concurrency, a page that would exceed
+     * it is split into fewer windows or sent as a single request.
+     */
+    private CompletableFuture<RecordList> splitSearch(BridgeRequest request, SolrRequest solrRequest,
+        String uniqueKey, int windows, SolrQueryMetrics metrics) throws BridgeError
+    {
+        int granted = reserveSplitWindows(windows);
+        if (granted < 2) {
+            releaseSplitWindows(granted);
+            return solrQuery(solrRequest, metrics, searchReader(request, solrRequest, null, metrics));
+        }
+
+        String core = solrRequest.getCore();
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (NameValuePair parameter : solrRequest.getParameters()) {
+            if (parameter.getName().equals("sort") == false) params.add(parameter);
+        }
+        String sort = getParameter(solrRequest.getParameters(), "sort");
+        if (StringUtils.isBlank(sort)) {
+            sort = String.format("score desc,%s asc", uniqueKey);
+        } else if (isSortedBy(sort, uniqueKey) == false) {
+            sort = String.format("%s,%s asc", sort, uniqueKey);
+        }
+        params.add(new BasicNameValuePair("sort", sort));
+
+        FieldExtractionPlan fieldPlan = FieldExtractionPlan.forFields(request.getFields());
+        int rows = Integer.parseInt(getPageSize(request));
+        int offset = Integer.parseInt(getOffset(request));
+        int windowRows = (rows + granted - 1) / granted;
+        List<CompletableFuture<List<Record>>> windowRecords = new ArrayList<CompletableFuture<List<Record>>>();
+        CompletableFuture<RecordList> page = new CompletableFuture<RecordList>();
+        Long[] numFound = new Long[1];
+        for (int window = 0; window < granted && window * windowRows < rows; window++) {
+            String path = buildSelectPath(core, String.valueOf(Math.min(windowRows, rows - window * windowRows)),
+                String.valueOf(offset + window * windowRows), solrRequest.getResponseFormat());
+            SolrRequest windowRequest = new SolrRequest(core, path, params, solrRequest.getResponseFormat());
+            boolean first = window == 0;
+            CompletableFuture<List<Record>> records = solrQuery(windowRequest, metrics, (content, charset) -> {
+                List<Record> recordList = new ArrayList<Record>();
+                SolrResponseDecoder decoder = SolrResponseDecoder.forFormat(windowRequest.getResponseFormat(),
+                    document -> recordList.add(new Record(fieldPlan.extract(document)))
+                ).read(content, charset);
+                recordQTime(metrics, decoder);
+                if (first) {
+                    numFound[0] = getNumFound(decoder);
+                }
+                return recordList;
+            });
+            records.whenComplete((value, error) -> {
+                releaseSplitWindows(1);
+                // The page fails with its first failed window rather than once every window is done.
+                if (error != null) page.completeExceptionally(error);
+            });
+            windowRecords.add(records);
+        }
+        releaseSplitWindows(granted - windowRecords.size());
+
+        // The windows still in flight when the page fails (or is cancelled) are cancelled, which
+        // frees their requests and split window reservations.
+        page.whenComplete((value, error) -> {
+            if (error != null) windowRecords.forEach(window -> window.cancel(false));
+        });
+        CompletableFuture.allOf(windowRecords.toArray(new CompletableFuture[windowRecords.size()]))
+            .thenAccept(done -> {
+                List<Record> records = new ArrayList<Record>();
+                for (CompletableFuture<List<Record>> window : windowRecords) {
+                    records.addAll(window.join());
+                }
+                page.complete(toRecordList(request, records, numFound[0]));
+            });
+        return page;
+    }
+
+    /** Reserves up to the given number of split fetch windows, returning how many were reserved. */
+    private int reserveSplitWindows(int windows) {
+        while (true) {
+            int inFlight = splitWindowsInFlight.get();
+            int granted = Math.min(windows, splitFetchMaxConcurrency - inFlight);
+            if (granted <= 0) return 0;
+            if (splitWindowsInFlight.compareAndSet(inFlight, inFlight + granted)) return granted;
+        }
+    }
+
+    private void releaseSplitWindows(int windows) {
+        if (windows > 0) splitWindowsInFlight.addAndGet(-windows);
+    }
+
+    /**
+     * Searches for every matching document, ignoring the page size and offset. When the fields
+     * and sort of the search are all docValues fields the documents are streamed from the /export
+     * handler in one request, which reads them from docValues without scoring the query.
+     * Otherwise (or when asking the schema fails) every page is read from /select in turn.
+     */
+    private CompletableFuture<RecordList> exportSearch(BridgeRequest request, SolrRequest solrRequest,
+        String uniqueKey, SolrQueryMetrics metrics) throws BridgeError
+    {
+        String core = solrRequest.getCore();
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (NameValuePair parameter : solrRequest.getParameters()) {
+            if (parameter.getName().equals("sort") == false) params.add(parameter);
+        }
+        String sort = getParameter(solrRequest.getParameters(), "sort");
+        FieldExtractionPlan fieldPlan = FieldExtractionPlan.forFields(request.getFields());
+
+        String fields = getParameter(solrRequest.getParameters(), "fl");
+        String exportSort = StringUtils.isBlank(sort) && uniqueKey != null ? uniqueKey + " asc" : sort;
+        // The export handler only reads Lucene queries, explicit field lists and sorts on docValues.
+        if (getParameter(params, "q") == null || fields == null || StringUtils.isBlank(exportSort)) {
+            return readAllPages(request, solrRequest, uniqueKey, params, sort, fieldPlan, metrics);
+        }
+        List<String> exportFields = new ArrayList<String>(Arrays.asList(fields.split(",")));
+        exportFields.addAll(Arrays.asList(getSortFields(exportSort)));
+        return hasDocValues(core, exportFields).thenCompose(docValues -> {
+            try {
+                if (docValues == false) {
+                    return readAllPages(request, solrRequest, uniqueKey, params, sort, fieldPlan, metrics);
                 }
+                List<NameValuePair> exportParams = new ArrayList<NameValuePair>(params);
+                exportParams.add(new BasicNameValuePair("sort", exportSort));
+                SolrRequest exportRequest = new SolrRequest(core,
+                    String.format("/%s/export?wt=%s", core, RESPONSE_FORMAT_JSON), exportParams, RESPONSE_FORMAT_JSON);
+                return solrQuery(exportRequest, metrics, (content, charset) -> {
+                    // Each attempt reads into its own list, a hedged attempt may be reading at the same time.
+                    List<Record> records = new ArrayList<Record>();
+                    SolrResponseDecoder decoder = SolrResponseDecoder.forFormat(RESPONSE_FORMAT_JSON,
+                        document -> records.add(new Record(fieldPlan.extract(document)))
+                    ).read(content, charset);
+                    return toRecordList(request, records, getNumFound(decoder));
+                });
+            } catch (BridgeError | RuntimeException e) {
+                return failed(e);
             }
-            recordResult = new Record(recordValues);
+        });
+    }
+
+    /** Reads every page of a search from /select in turn, with a cursor when the uniqueKey is known. */
+    private CompletableFuture<RecordList> readAllPages(BridgeRequest request, SolrRequest solrRequest,
+        String uniqueKey, List<NameValuePair> unsortedParams, String sort, FieldExtractionPlan fieldPlan,
+        SolrQueryMetrics metrics) throws BridgeError
+    {
+        String core = solrRequest.getCore();
+        List<NameValuePair> params = new ArrayList<NameValuePair>(unsortedParams);
+        logger.debug("The search can not be exported from the {} core, reading every page from /select.", core);
+        String cursorMark = null;
+        if (uniqueKey != null && getParameter(params, "json") == null) {
+            // A cursor needs the uniqueKey as a tie-break and keeps the pages consistent.
+            cursorMark = "*";
+            if (StringUtils.isBlank(sort)) {
+                sort = String.format("score desc,%s asc", uniqueKey);
+            } else if (isSortedBy(sort, uniqueKey) == false) {
+                sort = String.format("%s,%s asc", sort, uniqueKey);
+            }
+        }
+        if (StringUtils.isNotBlank(sort)) {
+            params.add(new BasicNameValuePair("sort", sort));
         }
+        return readPages(request, core, params, getPageSize(request), solrRequest.getResponseFormat(), cursorMark, 0,
+            fieldPlan, new ArrayList<Record>(), metrics);
+    }
 
-        return recordResult;
+    /** The records of one page of a search, along with the decoder that read them. */
+    private static final class Page {
+        final SolrResponseDecoder decoder;
+        final List<Record> records;
 
+        Page(SolrResponseDecoder decoder, List<Record> records) {
+            this.decoder = decoder;
+            this.records = records;
+        }
     }
 
-    @Override
-    public RecordList search(BridgeRequest request) throws BridgeError {
+    /**
+     * Reads the page of a search at the cursorMark (or at start when it is null) and every page
+     * after it, completing with the records read so far followed by those of the pages.
+     */
+    private CompletableFuture<RecordList> readPages(BridgeRequest request, String core, List<NameValuePair> params,
+        String rows, String responseFormat, String cursorMark, int start, FieldExtractionPlan fieldPlan,
+        List<Record> records, SolrQueryMetrics metrics)
+    {
+        List<NameValuePair> pageParams = new ArrayList<NameValuePair>(params);
+        String path;
+        if (cursorMark != null) {
+            pageParams.add(new BasicNameValuePair("cursorMark", cursorMark));
+            path = buildSelectPath(core, rows, null, responseFormat);
+        } else {
+            path = buildSelectPath(core, rows, String.valueOf(start), responseFormat);
+        }
+        SolrRequest pageRequest = new SolrRequest(core, path, pageParams, responseFormat);
+        return solrQuery(pageRequest, metrics, (content, charset) -> {
+            // Each attempt reads into its own list, a hedged attempt may be reading at the same time.
+            List<Record> pageRecords = new ArrayList<Record>();
+            SolrResponseDecoder decoder = SolrResponseDecoder.forFormat(responseFormat,
+                document -> pageRecords.add(new Record(fieldPlan.extract(document)))
+            ).read(content, charset);
+            recordQTime(metrics, decoder);
+            getNumFound(decoder);
+            return new Page(decoder, pageRecords);
+        }).thenCompose(page -> {
+            // Only the page that completed the query gets here, once.
+            records.addAll(page.records);
+            SolrResponseDecoder decoder = page.decoder;
+            int next = start + decoder.getDocumentCount();
+            // Solr returns the cursorMark that was sent once the end of the results was reached.
+            boolean done = decoder.getDocumentCount() == 0 || next >= decoder.getNumFound()
+                || (cursorMark != null && cursorMark.equals(decoder.getNextCursorMark()));
+            if (done) {
+                return CompletableFuture.completedFuture(toRecordList(request, records, decoder.getNumFound()));
+            }
+            return readPages(request, core, params, rows, responseFormat,
+                cursorMark == null ? null : decoder.getNextCursorMark(), next, fieldPlan, records, metrics);
+        });
+    }
+
+    private static RecordList toRecordList(BridgeRequest request, List<Record> records, Long numFound) {
+        Map<String,String> metadata = new LinkedHashMap<String,String>();
+        metadata.put("count", String.valueOf(numFound));
+        metadata.put("size", String.valueOf(records.size()));
+        return new RecordList(request.getFields(), records, metadata);
+    }
+
+    /** The field of each clause of a sort. */
+    private static String[] getSortFields(String sort) {
+        String[] clauses = sort.split(",");
+        String[] fields = new String[clauses.length];
+        for (int i = 0; i < clauses.length; i++) {
+            fields[i] = clauses[i].trim().split("\\s+")[0];
+        }
+        return fields;
+    }
+
+    /**
+     * Completes with whether every field has docValues, according to the field (or the dynamic
+     * field it matches) in the schema of the core. A field the schema API does not know, such as
+     * score or a function, has none, nor does a field whose definition can not be read.
+     */
+    private CompletableFuture<Boolean> hasDocValues(String core, List<String> fields) {
+        List<CompletableFuture<Boolean>> answers = new ArrayList<CompletableFuture<Boolean>>();
+        for (String field : fields) {
+            if (field.equals("score")) return CompletableFuture.completedFuture(false);
+            answers.add(readSchema(String.format("/%s/schema/fields/%s?includeDynamic=true&showDefaults=true&wt=json",
+                core, urlEncode(field)), json -> {
+                    Object definition = getPath(json, "field");
+                    return definition instanceof Map && Boolean.TRUE.equals(((Map)definition).get("docValues"));
+                }));
+        }
+        return CompletableFuture.allOf(answers.toArray(new CompletableFuture[answers.size()])).thenApply(done -> {
+            for (CompletableFuture<Boolean> answer : answers) {
+                if (Boolean.TRUE.equals(answer.join()) == false) return false;
+            }
+            return true;
+        });
+    }
+
+    /** Builds the reader that maps the response of a retrieve request to its single record. */
+    ResponseReader<Record> retrieveReader(BridgeRequest request, SolrRequest solrRequest, String metadataRoot,
+        SolrQueryMetrics metrics)
+    {
+
+        FieldExtractionPlan fieldPlan = FieldExtractionPlan.forFields(request.getFields());
 
-        SolrQualificationParser solrParser = new SolrQualificationParser();
-        String metadataRoot = solrParser.getJsonRootPath(request.getQuery());
-        String jsonRootPath = JSON_ROOT_DEFAULT;
         if (StringUtils.isNotBlank(metadataRoot)) {
-            jsonRootPath = metadataRoot;
+            // A custom root path can point anywhere in the response so it needs the full document.
+            return (content, charset) -> {
+                String jsonResponse = readString(content, charset);
+                return toRecord(fieldPlan, JsonPath.parse(jsonResponse).read(metadataRoot));
+            };
+        } else {
+            return (content, charset) -> {
+                List<Object> documents = new ArrayList<Object>();
+                recordQTime(metrics, SolrResponseDecoder.forFormat(solrRequest.getResponseFormat(), documents::add)
+                    .read(content, charset));
+                return toRecord(fieldPlan, documents);
+            };
         }
 
-        String jsonResponse = solrQuery("search", request, solrParser);
-        List<Record> recordList = new ArrayList<Record>();
-        DocumentContext jsonDocument = JsonPath.parse(jsonResponse);
-        Object objectRoot = jsonDocument.read(jsonRootPath);
-        Map<String,String> metadata = new LinkedHashMap<String,String>();
-        metadata.put("count",JsonPath.parse(jsonResponse).read("$.response.numFound", String.class));
+    }
+
+    private static Record toRecord(FieldExtractionPlan fieldPlan, Object objectRoot) throws BridgeError {
+
+        Record recordResult = new Record(null);
 
         if (objectRoot instanceof List) {
             List<Object> listRoot = (List)objectRoot;
-            metadata.put("size", String.valueOf(listRoot.size()));
-            for (Object arrayElement : listRoot) {
-                Map<String, Object> recordValues = new HashMap();
-                DocumentContext jsonObject = JsonPath.parse(arrayElement);
-                if (request.getFields() != null) {
-                    for (String field : request.getFields()) {
-                        try {
-                            recordValues.put(field, jsonObject.read(field));
-                        } catch (InvalidPathException e) {
-                            recordValues.put(field, null);
-                        }
-                    }
-                }
-                recordList.add(new Record(recordValues));
+            if (listRoot.size() == 1) {
+                recordResult = new Record(fieldPlan.extract(listRoot.get(0)));
+            } else {
+                throw new BridgeError("Multiple results matched an expected single match query");
             }
         } else if (objectRoot instanceof Map) {
-            metadata.put("size", "1");
-            Map<String, Object> recordValues = new HashMap();
-            DocumentContext jsonObject = JsonPath.parse(objectRoot);
-            for (String field : request.getFields()) {
-                recordValues.put(field, jsonObject.read(field));
-            }
-            recordList.add(new Record(recordValues));
+            recordResult = new Record(fieldPlan.extract(objectRoot));
         }
 
-        return new RecordList(request.getFields(), recordList, metadata);
+        return recordResult;
+
+    }
+
+    /** Builds the reader that maps the response of a search request to a page of records. */
+    ResponseReader<RecordList> searchReader(BridgeRequest request, SolrRequest solrRequest, String metadataRoot,
+        SolrQueryMetrics metrics)
+    {
+
+        FieldExtractionPlan fieldPlan = FieldExtractionPlan.forFields(request.getFields());
+
+        if (StringUtils.isNotBlank(metadataRoot)) {
+            // A custom root path can point anywhere in the response so it needs the full document.
+            return (content, charset) -> {
+                List<Record> recordList = new ArrayList<Record>();
+                Map<String,String> metadata = new LinkedHashMap<String,String>();
+                String jsonResponse = readString(content, charset);
+                DocumentContext jsonDocument = JsonPath.parse(jsonResponse);
+                Object objectRoot = jsonDocument.read(metadataRoot);
+                metadata.put("count",jsonDocument.read("$.response.numFound", String.class));
+
+                if (objectRoot instanceof List) {
+                    List<Object> listRoot = (List)objectRoot;
+                    metadata.put("size", String.valueOf(listRoot.size()));
+                    for (Object arrayElement : listRoot) {
+                        recordList.add(new Record(fieldPlan.extract(arrayElement)));
+                    }
+                } else if (objectRoot instanceof Map) {
+                    metadata.put("size", "1");
+                    recordList.add(new Record(fieldPlan.extract(objectRoot)));
+                }
+                return new RecordList(request.getFields(), recordList, metadata);
+            };
+        } else {
+            return (content, charset) -> {
+                List<Record> recordList = new ArrayList<Record>();
+                Map<String,String> metadata = new LinkedHashMap<String,String>();
+                // Map each document to a record as soon as it has been read off the wire.
+                SolrResponseDecoder decoder = SolrResponseDecoder.forFormat(solrRequest.getResponseFormat(),
+                    document -> recordList.add(new Record(fieldPlan.extract(document)))
+                ).read(content, charset);
+                recordQTime(metrics, decoder);
+                metadata.put("count", String.valueOf(getNumFound(decoder)));
+                metadata.put("size", String.valueOf(decoder.getDocumentCount()));
+                rememberCursorMark(solrRequest, decoder);
+                return new RecordList(request.getFields(), recordList, metadata);
+            };
+        }
 
     }
 
@@ -228,43 +1155,88 @@ public class SolrAdapter implements BridgeAdapter {
 
     public String buildUrl(String queryMethod, BridgeRequest request) throws BridgeError {
 
-        // Build up the url that you will use to retrieve the source data. Use the query variable
-        // instead of request.getQuery() to post a query without parameter placeholders.
-        StringBuilder url = new StringBuilder();
+        String url = this.apiEndpoint
+            + buildPath(queryMethod, request, getResponseFormat(request, new SolrQualificationParser()));
+        logger.trace("Solr URL: {}", url);
+        return url;
 
-        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
-        String pageSize = "1000";
-        String offset = "0";
+    }
 
-        if (StringUtils.isNotBlank(metadata.get("pageSize")) && metadata.get("pageSize").equals("0") == false) {
-            pageSize = metadata.get("pageSize");
-        }
-        if (StringUtils.isNotBlank(metadata.get("offset"))) {
-            offset = metadata.get("offset");
+    public HttpEntity buildRequestBody(String queryMethod, BridgeRequest request, SolrQualificationParser solrParser) throws BridgeError {
+        HttpEntity result = null;
+
+        try {
+            result = new UrlEncodedFormEntity(buildRequestParameters(queryMethod, request, solrParser));
+        } catch (UnsupportedEncodingException exceptionDetails) {
+            throw new BridgeError (
+                "Unable to generate the URL encoded HTTP Request body for the Solr API request.",
+                exceptionDetails
+            );
         }
 
-        url.append(this.apiEndpoint)
-            .append("/")
-            .append(request.getStructure())
-            .append("/select")
-            .append("?wt=json");
+        return result;
+    }
+
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /** Builds the request handler path and url parameters, relative to the Solr base url. */
+    private String buildPath(String queryMethod, BridgeRequest request, String responseFormat) throws BridgeError {
 
         //Set row count to 0 if doing a count.
         if (queryMethod.equals("count")) {
-            url.append("&rows=0");
+            return buildSelectPath(request.getStructure(), "0", null, responseFormat);
+        } else if (queryMethod.equals("retrieve")) {
+            // A second row is enough to tell that more than the single expected document matched.
+            return buildSelectPath(request.getStructure(), "2", null, responseFormat);
         } else {
-            url.append("&rows=" + pageSize)
-                .append("&start=" + offset);
+            return buildSelectPath(request.getStructure(), getPageSize(request), getOffset(request), responseFormat);
+        }
+
+    }
+
+    /** Builds the /select path of a core, the start parameter is left out when it is null. */
+    private String buildSelectPath(String core, String rows, String start, String responseFormat) {
+
+        // Build up the url that you will use to retrieve the source data. Use the query variable
+        // instead of request.getQuery() to post a query without parameter placeholders.
+        StringBuilder url = new StringBuilder();
+
+        url.append("/")
+            .append(core)
+            .append("/select")
+            .append("?wt=" + responseFormat)
+            .append("&rows=" + rows);
+        if (start != null) {
+            url.append("&start=" + start);
         }
 
-        logger.trace("Solr URL: {}", url.toString());
         return url.toString();
 
     }
 
-    public HttpEntity buildRequestBody(String queryMethod, BridgeRequest request, SolrQualificationParser solrParser) throws BridgeError {
+    private String getPageSize(BridgeRequest request) {
+        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
+        String pageSize = "1000";
+        if (StringUtils.isNotBlank(metadata.get("pageSize")) && metadata.get("pageSize").equals("0") == false) {
+            pageSize = metadata.get("pageSize");
+        }
+        return pageSize;
+    }
+
+    private String getOffset(BridgeRequest request) {
+        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
+        String offset = "0";
+        if (StringUtils.isNotBlank(metadata.get("offset"))) {
+            offset = metadata.get("offset");
+        }
+        return offset;
+    }
+
+    private List<NameValuePair> buildRequestParameters(String queryMethod, BridgeRequest request, SolrQualificationParser solrParser) throws BridgeError {
         List<NameValuePair> params = new ArrayList<NameValuePair>();
-        HttpEntity result = null;
 
         String query = solrParser.parse(request.getQuery(),request.getParameters());
         //Set query to return everything if no qualification defined.
@@ -280,23 +1252,31 @@ public class SolrAdapter implements BridgeAdapter {
             params.add(new BasicNameValuePair("q", query));
             logger.trace(String.format("Lucene Query being sent to solr: %s", query));
         }
+        // Further parameters from the query metadata, such as filter queries.
+        for (Map.Entry<String,List<String>> param
+            : solrParser.getParams(request.getQuery(), request.getParameters()).entrySet())
+        {
+            for (String value : param.getValue()) {
+                params.add(new BasicNameValuePair(param.getKey(), value));
+            }
+        }
 
         //only set sorting and field return limitation if we're not counting.
         if (queryMethod.equals("count") == false) {
 
             //only set field limitation if we're not counting *and* the request specified fields to be returned.
             if (request.getFields() != null && request.getFields().isEmpty() == false) {
-                StringBuilder includedFields = new StringBuilder();
-                String[] bridgeFields = request.getFieldArray();
-                for (int i = 0; i < request.getFieldArray().length; i++) {
-                    //strip _source from the beginning of the specified field name as this is redundent to Solr.
-                    includedFields.append(bridgeFields[i]);
-                    //only append a comma if this is not the last field
-                    if (i != (request.getFieldArray().length -1)) {
-                        includedFields.append(",");
-                    }
+                String includedFields;
+                if (solrParser.getJsonRootPath(request.getQuery()) == null) {
+                    // Fields are read from the documents, ask only for the top level fields they need.
+                    includedFields = FieldExtractionPlan.forFields(request.getFields()).getSolrFieldList();
+                } else {
+                    // Fields are read relative to the root path, which need not be a document.
+                    includedFields = StringUtils.join(request.getFieldArray(), ",");
+                }
+                if (includedFields != null) {
+                    params.add(new BasicNameValuePair("fl", includedFields));
                 }
-                params.add(new BasicNameValuePair("fl", includedFields.toString()));
             }
             //only set sorting if we're not counting *and* the request specified a sort order.
             if (request.getMetadata("order") != null) {
@@ -321,36 +1301,898 @@ public class SolrAdapter implements BridgeAdapter {
 
         }
 
+        // The response header is only read for its QTime, so leave out the echo of the parameters.
+        // A root path can read any part of the response, including the header.
+        if (solrParser.getJsonRootPath(request.getQuery()) == null) {
+            params.add(new BasicNameValuePair("echoParams", "none"));
+        }
+
+        return params;
+    }
+
+    private SolrRequest buildSolrRequest(String queryMethod, BridgeRequest request, SolrQualificationParser solrParser,
+        SolrQueryMetrics metrics) throws BridgeError
+    {
+        // Parsing the bridge query dominates building the parameters.
+        long start = System.nanoTime();
+        List<NameValuePair> parameters = buildRequestParameters(queryMethod, request, solrParser);
+        metrics.recordParse(System.nanoTime() - start);
+        String responseFormat = getResponseFormat(request, solrParser);
+        return new SolrRequest(request.getStructure(), buildPath(queryMethod, request, responseFormat), parameters,
+            responseFormat);
+    }
+
+    /**
+     * The wt a query is answered in: the responseFormat of its metadata, otherwise the adapter's.
+     * A query with a jsonRootPath is always answered in JSON since the path navigates the JSON.
+     */
+    private String getResponseFormat(BridgeRequest request, SolrQualificationParser solrParser) throws BridgeError {
+        if (solrParser.getJsonRootPath(request.getQuery()) != null) {
+            return RESPONSE_FORMAT_JSON;
+        }
+        String queryFormat = solrParser.getResponseFormat(request.getQuery());
+        return queryFormat == null ? responseFormat : toResponseFormat("query responseFormat", queryFormat);
+    }
+
+    private static String toResponseFormat(String setting, String value) throws BridgeError {
+        if (StringUtils.equalsIgnoreCase(value, RESPONSE_FORMAT_JSON)) {
+            return RESPONSE_FORMAT_JSON;
+        } else if (StringUtils.equalsIgnoreCase(value, RESPONSE_FORMAT_JAVABIN)) {
+            return RESPONSE_FORMAT_JAVABIN;
+        }
+        throw new BridgeError(String.format("The %s must be one of %s but was \"%s\".",
+            setting, Arrays.asList(RESPONSE_FORMAT_JSON, RESPONSE_FORMAT_JAVABIN), value));
+    }
+
+    private SolrQueryMetrics getQueryMetrics(String method, BridgeRequest request) {
+        return metricsRegistry.getQueryMetrics(method, StringUtils.defaultString(request.getStructure()));
+    }
+
+    private static <T> CompletableFuture<T> recordCall(SolrQueryMetrics metrics, long start, CompletableFuture<T> call) {
+        call.whenComplete((value, error) -> {
+            int records = 0;
+            if (value instanceof RecordList && ((RecordList)value).getRecords() != null) {
+                records = ((RecordList)value).getRecords().size();
+            } else if (value instanceof Record) {
+                records = 1;
+            }
+            metrics.recordCall(System.nanoTime() - start, records, error != null);
+        });
+        return call;
+    }
+
+    private static void recordQTime(SolrQueryMetrics metrics, SolrResponseDecoder decoder) {
+        if (decoder.getQTime() != null) {
+            metrics.recordQTime(decoder.getQTime());
+        }
+    }
+
+    /**
+     * Rewrites a search to use cursorMark pagination. The sort gets the core's uniqueKey as a
+     * tie-break, which cursors require. The first page starts a new cursor chain. Later pages
+     * continue from the cursorMark remembered for their offset. A page with no remembered
+     * cursorMark (random access) falls back to start with the same sort. Queries sent as JSON
+     * keep offset paging since their body can carry its own sort and offset.
+     */
+    private SolrRequest buildCursorRequest(BridgeRequest request, SolrRequest solrRequest, String uniqueKey)
+        throws BridgeError
+    {
+        String core = solrRequest.getCore();
+        int offset;
         try {
-            result = new UrlEncodedFormEntity(params);
-        } catch (UnsupportedEncodingException exceptionDetails) {
-            throw new BridgeError (
-                "Unable to generate the URL encoded HTTP Request body for the Solr API request.",
-                exceptionDetails
+            offset = Integer.parseInt(getOffset(request));
+        } catch (NumberFormatException e) {
+            return solrRequest;
+        }
+        if (uniqueKey == null || getParameter(solrRequest.getParameters(), "json") != null) {
+            return solrRequest;
+        }
+
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (NameValuePair parameter : solrRequest.getParameters()) {
+            if (parameter.getName().equals("sort") == false) params.add(parameter);
+        }
+        String sort = getParameter(solrRequest.getParameters(), "sort");
+        if (StringUtils.isBlank(sort)) {
+            sort = String.format("score desc,%s asc", uniqueKey);
+        } else if (isSortedBy(sort, uniqueKey) == false) {
+            sort = String.format("%s,%s asc", sort, uniqueKey);
+        }
+        params.add(new BasicNameValuePair("sort", sort));
+
+        String rows = getPageSize(request);
+        String cursorChain = new StringBuilder(core)
+            .append('\n').append(rows)
+            .append('\n').append(URLEncodedUtils.format(params, StandardCharsets.UTF_8))
+            .toString();
+        String cursorMark = (offset == 0) ? "*" : cursorMarks.get(cursorChain + "\n" + offset);
+        if (cursorMark == null) {
+            logger.trace("No cursorMark for offset {}, falling back to start.", offset);
+            return new SolrRequest(core, buildSelectPath(core, rows, String.valueOf(offset), solrRequest.getResponseFormat()),
+                params, solrRequest.getResponseFormat());
+        }
+        params.add(new BasicNameValuePair("cursorMark", cursorMark));
+        return new SolrRequest(core, buildSelectPath(core, rows, null, solrRequest.getResponseFormat()), params,
+            solrRequest.getResponseFormat(), cursorChain, offset);
+    }
+
+    /**
+     * The id a retrieve looks up when its query is nothing but a match on the core's uniqueKey
+     * (such as <code>id:IW\-02</code>, written directly or by the Kinetic DSL), otherwise null.
+     * Such a retrieve is sent as a real-time get: the /get handler looks the document up by id
+     * without parsing or scoring a query, and also sees updates that have not been committed yet.
+     */
+    private String getRealTimeGetId(SolrRequest solrRequest, String uniqueKey) {
+        String query = getParameter(solrRequest.getParameters(), "q");
+        if (query == null || uniqueKey == null) {
+            return null;
+        }
+        // Parameters from the query metadata, such as filter queries, need a real query.
+        for (NameValuePair parameter : solrRequest.getParameters()) {
+            if (Arrays.asList("q", "fl", "sort", "echoParams").contains(parameter.getName()) == false) return null;
+        }
+        return QueryEscaper.readFieldValue(query, uniqueKey);
+    }
+
+    /**
+     * Builds the real-time get of the ids on the core of a request. It is asked with ids rather
+     * than id so that it answers with a document list, like /select.
+     */
+    private SolrRequest buildRealTimeGetRequest(SolrRequest solrRequest, Collection<String> ids, String fields) {
+        StringBuilder idList = new StringBuilder();
+        for (String id : ids) {
+            if (idList.length() > 0) idList.append(',');
+            // The ids are split on commas, a backslash escapes a comma (or a backslash) in an id.
+            idList.append(id.replace("\\", "\\\\").replace(",", "\\,"));
+        }
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("ids", idList.toString()));
+        if (fields != null) {
+            params.add(new BasicNameValuePair("fl", fields));
+        }
+        String core = solrRequest.getCore();
+        String path = String.format("/%s/get?wt=%s", core, solrRequest.getResponseFormat());
+        return new SolrRequest(core, path, params, solrRequest.getResponseFormat());
+    }
+
+    /**
+     * Looks a document up by id as part of a batch: concurrent lookups on the same core for the
+     * same fields are sent as a single real-time get of all of their ids.
+     */
+    private CompletableFuture<Record> batchedRealTimeGet(BridgeRequest request, SolrRequest solrRequest, String id,
+        String uniqueKey, SolrQueryMetrics metrics)
+    {
+        FieldExtractionPlan fieldPlan = FieldExtractionPlan.forFields(request.getFields());
+        String batchKey = solrRequest.getPath() + "\n"
+            + StringUtils.defaultString(getParameter(solrRequest.getParameters(), "fl"));
+        return retrieveBatcher.submit(batchKey, id, ids -> realTimeGet(solrRequest, ids, uniqueKey, metrics))
+            .thenCompose(document -> {
+                try {
+                    return CompletableFuture.completedFuture(toRecord(fieldPlan,
+                        document == null ? Collections.emptyList() : Collections.singletonList(document)));
+                } catch (BridgeError e) {
+                    return failed(e);
+                }
+            });
+    }
+
+    /** Gets the documents with the ids, completing with the document (or null) of each id. */
+    private CompletableFuture<List<Object>> realTimeGet(SolrRequest solrRequest, List<String> ids,
+        String uniqueKey, SolrQueryMetrics metrics) throws BridgeError
+    {
+        // The documents are matched up with their ids by their uniqueKey.
+        String fields = getParameter(solrRequest.getParameters(), "fl");
+        if (fields != null && Arrays.asList(fields.split(",")).contains(uniqueKey) == false) {
+            fields = fields + "," + uniqueKey;
+        }
+        SolrRequest batchRequest = buildRealTimeGetRequest(solrRequest, new LinkedHashSet<String>(ids), fields);
+        return solrQuery(batchRequest, metrics, (content, charset) -> {
+            Map<String,Object> documents = new HashMap<String,Object>();
+            recordQTime(metrics, SolrResponseDecoder.forFormat(batchRequest.getResponseFormat(),
+                document -> documents.putIfAbsent(String.valueOf(document.get(uniqueKey)), document)
+            ).read(content, charset));
+            List<Object> results = new ArrayList<Object>(ids.size());
+            for (String id : ids) {
+                results.add(documents.get(id));
+            }
+            return results;
+        });
+    }
+
+    /** Remembers where the next page of a cursor chain starts. */
+    private void rememberCursorMark(SolrRequest solrRequest, SolrResponseDecoder decoder) {
+        LruCache<String,String> cursors = this.cursorMarks;
+        String nextCursorMark = decoder.getNextCursorMark();
+        // Solr returns the cursorMark that was sent once the end of the results was reached.
+        if (cursors != null && solrRequest.getCursorChain() != null && nextCursorMark != null
+            && decoder.getDocumentCount() > 0
+            && nextCursorMark.equals(getParameter(solrRequest.getParameters(), "cursorMark")) == false)
+        {
+            int nextOffset = solrRequest.getCursorOffset() + decoder.getDocumentCount();
+            cursors.put(solrRequest.getCursorChain() + "\n" + nextOffset, nextCursorMark);
+        }
+    }
+
+    private static boolean isSortedBy(String sort, String field) {
+        for (String clause : sort.split(",")) {
+            if (clause.trim().split("\\s+")[0].equals(field)) return true;
+        }
+        return false;
+    }
+
+    private static String getParameter(List<NameValuePair> parameters, String name) {
+        for (NameValuePair parameter : parameters) {
+            if (parameter.getName().equals(name)) return parameter.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Completes with the uniqueKey field of a core from the schema API, or with null when the
+     * schema can not be read.
+     */
+    private CompletableFuture<String> getUniqueKey(String core) {
+        return readSchema(String.format("/%s/schema/uniquekey?wt=json", core), json -> {
+            Object value = getPath(json, "uniqueKey");
+            return value instanceof String ? (String)value : null;
+        });
+    }
+
+    /**
+     * Completes with the answer to a schema API path, reading it only once and without blocking
+     * the calling thread. Completes with null when the path can not be read (or has no answer),
+     * in which case it is not read again for a minute.
+     */
+    private <T> CompletableFuture<T> readSchema(String path, Function<Object,T> answer) {
+        T known = (T)schemaAnswers.get(path);
+        Long retryAt = schemaRetries.get(path);
+        if (known != null || (retryAt != null && System.currentTimeMillis() < retryAt)) {
+            return CompletableFuture.completedFuture(known);
+        }
+        CompletableFuture<Object> read = new CompletableFuture<Object>();
+        CompletableFuture<Object> inFlight = schemaReads.putIfAbsent(path, read);
+        if (inFlight != null) {
+            return (CompletableFuture<T>)inFlight;
+        }
+        getJsonAsync(path).whenComplete((json, error) -> {
+            T value = null;
+            try {
+                value = error == null ? answer.apply(json) : null;
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            if (value != null) {
+                schemaAnswers.put(path, value);
+            } else {
+                if (error != null) {
+                    logger.warn(String.format("Unable to read %s from the schema API.", path), unwrap(error));
+                }
+                schemaRetries.put(path, System.currentTimeMillis() + SCHEMA_RETRY_MILLIS);
+            }
+            schemaReads.remove(path, read);
+            read.complete(value);
+        });
+        return (CompletableFuture<T>)read;
+    }
+
+    /**
+     * Returns the cached result of an identical earlier bridge call when the result cache is
+     * enabled, or shares the result of an identical call that is still in flight. Otherwise runs
+     * the query (and caches its result). The cache holds a copy of the result and every hit gets
+     * a copy of its own, so a caller changing its records changes nobody else's.
+     */
+    private <T> CompletableFuture<T> cachedQuery(String bridgeMethod, BridgeRequest request,
+        SolrRequest solrRequest, String jsonRootPath, QueryExecution<T> execution)
+    {
+        String key = getQueryKey(bridgeMethod, request, solrRequest, jsonRootPath);
+        SolrResultCache cache = this.resultCache;
+        if (cache == null) {
+            return singleFlight.execute(key, execution);
+        }
+        T cached = (T)cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture((T)copyResult(cached));
+        }
+        return singleFlight.execute(key, () -> {
+            long generation = cache.getGeneration(solrRequest.getCore());
+            return execution.execute().thenApply(result -> {
+                int weight = 1;
+                if (result instanceof RecordList && ((RecordList)result).getRecords() != null) {
+                    weight = Math.max(1, ((RecordList)result).getRecords().size());
+                }
+                cache.put(solrRequest.getCore(), key, copyResult(result), weight, generation);
+                return result;
+            });
+        });
+    }
+
+    /** Copies a Count, Record or RecordList down to the values of its records. */
+    private static Object copyResult(Object result) {
+        if (result instanceof Count) {
+            Count count = (Count)result;
+            return new Count(count.getValue(), (Map<String,String>)copyValue(count.getMetadata()));
+        } else if (result instanceof Record) {
+            return new Record((Map<String,Object>)copyValue(((Record)result).getRecord()));
+        } else if (result instanceof RecordList) {
+            RecordList recordList = (RecordList)result;
+            List<Record> records = null;
+            if (recordList.getRecords() != null) {
+                records = new ArrayList<Record>(recordList.getRecords().size());
+                for (Record record : recordList.getRecords()) {
+                    records.add((Record)copyResult(record));
+                }
+            }
+            return new RecordList((List<String>)copyValue(recordList.getFields()), records,
+                (Map<String,String>)copyValue(recordList.getMetadata()));
+        }
+        return result;
+    }
+
+    /** Copies the maps and lists of a record value, the strings, numbers and booleans in them are immutable. */
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            Map<Object,Object> copy = new LinkedHashMap<Object,Object>();
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<Object>(((List<?>)value).size());
+            for (Object element : (List<?>)value) {
+                copy.add(copyValue(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /** The key identical bridge calls share their results by. */
+    private static String getQueryKey(String bridgeMethod, BridgeRequest request, SolrRequest solrRequest,
+        String jsonRootPath)
+    {
+        // The field list and root path are part of the key since they change how the same
+        // response is turned into records.
+        return new StringBuilder(bridgeMethod)
+            .append('\n').append(StringUtils.defaultString(jsonRootPath))
+            .append('\n').append(request.getFields())
+            .append('\n').append(solrRequest.getKey())
+            .toString();
+    }
+
+    /**
+     * Drops the cached results of every core whose index version changed since the last poll,
+     * which is right after a commit that changed the index. The versions are read without
+     * waiting for them, so a slow core does not hold up the scheduler (or the other cores).
+     *
+     * A SolrCloud collection is served by cores named after its shards and replicas rather than
+     * after the collection, so the cluster state is read first and the version of a collection
+     * is read from the leader core of each of its shards. Anything that is not a collection,
+     * including every core of a standalone server (where the cluster state can not be read), is
+     * read from its own luke handler.
+     */
+    private void pollIndexVersions() {
+        SolrResultCache cache = this.resultCache;
+        if (cache == null || indexVersionPoll.isDone() == false) return;
+        Set<String> cores = cache.getCores();
+        if (cores.isEmpty()) return;
+        indexVersionPoll = getJsonAsync("/admin/collections?action=CLUSTERSTATUS&wt=json")
+            .handle((status, error) -> getPath(status, "cluster", "collections"))
+            .thenCompose(collections -> {
+                List<CompletableFuture<Void>> polls = new ArrayList<CompletableFuture<Void>>();
+                for (String core : cores) {
+                    polls.add(getIndexVersion(core, getPath(collections, core)).handle((version, error) -> {
+                        if (error != null) {
+                            logger.warn(String.format("Unable to poll the index version of the %s core.", core), unwrap(error));
+                        } else if (version != null) {
+                            String previous = indexVersions.put(core, version);
+                            if (previous != null && previous.equals(version) == false) {
+                                logger.debug("The index version of the {} core changed, invalidating cached results.", core);
+                                cache.invalidate(core);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                return CompletableFuture.allOf(polls.toArray(new CompletableFuture[polls.size()]));
+            });
+    }
+
+    /**
+     * Reads the index version of a core, or of each shard of the SolrCloud collection when the
+     * cluster state of the collection is given. Null if it is unknown, such as while a shard has
+     * no leader. A new leader is seen as a changed version, which only drops results early.
+     */
+    private CompletableFuture<String> getIndexVersion(String core, Object collection) {
+        if (collection == null) {
+            return getLukeIndexVersion(null, core)
+                .thenApply(version -> version == null ? null : String.valueOf(version));
+        }
+        Object shards = getPath(collection, "shards");
+        if (shards instanceof Map == false) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String scheme = apiEndpoint.substring(0, apiEndpoint.indexOf("://"));
+        List<CompletableFuture<String>> versions = new ArrayList<CompletableFuture<String>>();
+        for (Map.Entry<String,Object> shard : new TreeMap<String,Object>((Map<String,Object>)shards).entrySet()) {
+            Map leader = null;
+            Object replicas = getPath(shard.getValue(), "replicas");
+            if (replicas instanceof Map) {
+                for (Object replica : ((Map)replicas).values()) {
+                    if (replica instanceof Map && "true".equals(String.valueOf(((Map)replica).get("leader")))) {
+                        leader = (Map)replica;
+                    }
+                }
+            }
+            if (leader == null || leader.get("core") == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            String baseUrl = leader.get("base_url") != null
+                ? String.valueOf(leader.get("base_url"))
+                : toBaseUrl(scheme, String.valueOf(leader.get("node_name")));
+            versions.add(getLukeIndexVersion(baseUrl, String.valueOf(leader.get("core")))
+                .thenApply(version -> version == null ? null : shard.getKey() + "=" + version));
+        }
+        return CompletableFuture.allOf(versions.toArray(new CompletableFuture[versions.size()]))
+            .thenApply(ignored -> {
+                List<String> shardVersions = new ArrayList<String>();
+                for (CompletableFuture<String> version : versions) {
+                    if (version.join() == null) return null;
+                    shardVersions.add(version.join());
+                }
+                return String.join(",", shardVersions);
+            });
+    }
+
+    /**
+     * Reads the index version of a core from its luke handler, on the given node or any node
+     * when that is null.
+     */
+    private CompletableFuture<Long> getLukeIndexVersion(String baseUrl, String core) {
+        String path = String.format("/%s/admin/luke?numTerms=0&show=index&wt=json", urlEncode(core));
+        return (baseUrl == null ? getJsonAsync(path) : getJsonAsync(baseUrl, path))
+            .thenApply(luke -> {
+                Object version = getPath(luke, "index", "version");
+                return (version instanceof Number) ? ((Number)version).longValue() : null;
+            });
+    }
+
+    /**
+     * Sends a GET request for a small JSON document without blocking the calling thread. The
+     * response is parsed, and the caller continued, on the admin threads rather than the client's
+     * I/O thread, or the decode threads where it would wait behind streaming responses.
+     */
+    private CompletableFuture<Object> getJsonAsync(String path) {
+        String baseUrl;
+        try {
+            baseUrl = nodePool.select(null).getBaseUrl();
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        return getJsonAsync(baseUrl, path);
+    }
+
+    /** Sends a GET request for a small JSON document to the given node, see getJsonAsync. */
+    private CompletableFuture<Object> getJsonAsync(String baseUrl, String path) {
+        HttpGet get;
+        try {
+            get = new HttpGet(baseUrl + path);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        if (this.username != null && this.password != null) {
+            addBasicAuthenticationHeader(get, this.username, this.password);
+        }
+        return send(get).handleAsync((response, error) -> {
+            try {
+                if (error != null) {
+                    throw new BridgeError(String.format("Unable to make a connection to the Solr API endpoint %s.", path),
+                        unwrap(error));
+                }
+                String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                int responseCode = response.getStatusLine().getStatusCode();
+                if (responseCode < 200 || responseCode >= 300) {
+                    throw new BridgeError(String.format("Unsuccessful HTTP response - the server returned a %s status code, expected 200.", responseCode));
+                }
+                return JSONValue.parse(body);
+            } catch (IOException e) {
+                throw new CompletionException(new BridgeError(
+                    String.format("Unable to make a connection to the Solr API endpoint %s.", path), e));
+            } catch (BridgeError e) {
+                throw new CompletionException(e);
+            }
+        }, adminExecutor);
+    }
+
+    private boolean isAnyNodeAvailable() {
+        for (SolrNodePool.Node node : nodePool.getNodes()) {
+            if (node.isAvailable()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the configured nodes with the live nodes of the SolrCloud cluster, which are read
+     * from the collections API CLUSTERSTATUS action without blocking the calling thread. The
+     * configured nodes are kept when the cluster state can not be read. The returned future
+     * never fails.
+     */
+    private CompletableFuture<Void> discoverLiveNodes() {
+        SolrNodePool pool = this.nodePool;
+        String scheme = apiEndpoint.substring(0, apiEndpoint.indexOf("://"));
+        CompletableFuture<Void> discovery = getJsonAsync("/admin/collections?action=CLUSTERSTATUS&wt=json")
+            .thenAccept(status -> {
+                Object liveNodes = getPath(status, "cluster", "live_nodes");
+                if (liveNodes instanceof List && ((List)liveNodes).isEmpty() == false) {
+                    // The node names do not include the scheme, the cluster is assumed to use one throughout.
+                    List<String> baseUrls = new ArrayList<String>();
+                    for (Object nodeName : (List)liveNodes) {
+                        baseUrls.add(toBaseUrl(scheme, String.valueOf(nodeName)));
+                    }
+                    if (baseUrls.equals(getBaseUrls(pool)) == false) {
+                        logger.debug("Using the live Solr nodes {}.", baseUrls);
+                        pool.setBaseUrls(baseUrls);
+                    }
+                }
+            })
+            .exceptionally(error -> {
+                logger.warn("Unable to discover the live nodes of the Solr cluster.", unwrap(error));
+                return null;
+            });
+        this.liveNodeDiscovery = discovery;
+        return discovery;
+    }
+
+    private static List<String> getBaseUrls(SolrNodePool pool) {
+        List<String> baseUrls = new ArrayList<String>();
+        for (SolrNodePool.Node node : pool.getNodes()) {
+            baseUrls.add(node.getBaseUrl());
+        }
+        return baseUrls;
+    }
+
+    /** Turns a SolrCloud node name, such as 10.0.0.1:8983_solr, into its base url. */
+    private static String toBaseUrl(String scheme, String nodeName) {
+        int separator = nodeName.indexOf('_');
+        if (separator < 0) {
+            return scheme + "://" + nodeName;
+        }
+        try {
+            return scheme + "://" + nodeName.substring(0, separator) + "/"
+                + URLDecoder.decode(nodeName.substring(separator + 1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends the core admin STATUS check to every ejected node and reinstates the ones that answer,
+     * then refreshes the live nodes when they are discovered from the cluster. Neither the checks
+     * nor the discovery are waited for, so a hung node does not hold up the scheduler. A refresh
+     * is skipped while the previous one is still in flight.
+     */
+    private void probeNodes() {
+        SolrNodePool pool = this.nodePool;
+        if (pool == null) return;
+        for (SolrNodePool.Node node : pool.getNodes()) {
+            if (node.isAvailable()) continue;
+            HttpGet get = new HttpGet(node.getBaseUrl() + "/admin/cores?action=STATUS&wt=json");
+            if (this.username != null && this.password != null) {
+                addBasicAuthenticationHeader(get, this.username, this.password);
+            }
+            send(get).whenComplete((response, error) -> {
+                if (response != null) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    int responseCode = response.getStatusLine().getStatusCode();
+                    if (responseCode >= 200 && responseCode < 300) pool.reinstate(node);
+                }
+            });
+        }
+        if (Boolean.parseBoolean(properties.getValue(Properties.DISCOVER_LIVE_NODES))
+            && liveNodeDiscovery.isDone())
+        {
+            discoverLiveNodes();
+        }
+    }
+
+    /** Walks nested JSON objects, returning null as soon as a key is missing. */
+    private static Object getPath(Object node, String... keys) {
+        for (String key : keys) {
+            if (node instanceof Map == false) return null;
+            node = ((Map)node).get(key);
+        }
+        return node;
+    }
+
+    private static String urlEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("solr-adapter-scheduler"));
+        }
+        return this.scheduler;
+    }
+
+    /** A pool of up to the given number of threads, which are let go once idle. */
+    private static ExecutorService threadPool(int threads, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreads(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** The adapter's threads never keep the bridgehub from shutting down. */
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private CloseableHttpAsyncClient buildHttpClient() throws BridgeError {
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT, daemonThreads("solr-adapter-io")));
+        } catch (IOReactorException e) {
+            throw new BridgeError("Unable to start the Solr HTTP client.", e);
+        }
+        connectionManager.setMaxTotal(
+            getIntegerProperty(Properties.MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+        connectionManager.setDefaultMaxPerRoute(
+            getIntegerProperty(Properties.MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+
+        final long keepAliveMillis = TimeUnit.SECONDS.toMillis(
+            getIntegerProperty(Properties.CONNECTION_KEEP_ALIVE, DEFAULT_CONNECTION_KEEP_ALIVE));
+        // Honor a Keep-Alive timeout sent by the server but never hold a connection longer
+        // than the configured maximum (Jetty does not send one, which would mean forever).
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                .getKeepAliveDuration(response, context);
+            return (duration > 0 && duration < keepAliveMillis) ? duration : keepAliveMillis;
+        };
+
+        final long idleTimeout = getIntegerProperty(Properties.CONNECTION_IDLE_TIMEOUT, DEFAULT_CONNECTION_IDLE_TIMEOUT);
+        getScheduler().scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+        }, CONNECTION_EVICTION_SECONDS, CONNECTION_EVICTION_SECONDS, TimeUnit.SECONDS);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(getTimeoutMillis(Properties.CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT))
+            .setSocketTimeout(getTimeoutMillis(Properties.READ_TIMEOUT, DEFAULT_READ_TIMEOUT))
+            .setConnectionRequestTimeout(
+                getTimeoutMillis(Properties.CONNECTION_REQUEST_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT))
+            .build();
+
+        CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .setThreadFactory(daemonThreads("solr-adapter-reactor"))
+            .build();
+        asyncClient.start();
+        return asyncClient;
+    }
+
+    private int getTimeoutMillis(String name, int defaultSeconds) throws BridgeError {
+        return (int)TimeUnit.SECONDS.toMillis(getIntegerProperty(name, defaultSeconds));
+    }
+
+    private int getIntegerProperty(String name, int defaultValue) throws BridgeError {
+        String value = properties.getValue(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new BridgeError(
+                String.format("The \"%s\" property must be a whole number but was \"%s\".", name, value),
+                e
             );
         }
+    }
 
+    /**
+     * Reads a property holding a whole number for every core, a comma separated list of core=number
+     * pairs, or both, such as "20, audit=4". The number for every other core is kept under "*".
+     */
+    private Map<String,Integer> getPerCoreProperty(String name) throws BridgeError {
+        String value = properties.getValue(name);
+        Map<String,Integer> result = new HashMap<String,Integer>();
+        if (StringUtils.isBlank(value)) {
+            return result;
+        }
+        for (String entry : value.split(",")) {
+            int separator = entry.indexOf('=');
+            String core = separator < 0 ? "*" : entry.substring(0, separator).trim();
+            try {
+                result.put(core, Integer.parseInt(entry.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new BridgeError(
+                    String.format("The \"%s\" property must be a whole number or a list of core=number pairs but was \"%s\".",
+                        name, value),
+                    e
+                );
+            }
+        }
         return result;
     }
 
+    /** The bulkhead of a core, null when the core has no concurrency limit. */
+    private SolrBulkhead getBulkhead(String core) {
+        SolrBulkhead bulkhead = bulkheads.get(core);
+        if (bulkhead == null) {
+            Integer limit = coreConcurrencyLimits.getOrDefault(core, coreConcurrencyLimits.get("*"));
+            if (limit == null || limit <= 0) {
+                return null;
+            }
+            int queueDepth = coreQueueDepths.getOrDefault(core,
+                coreQueueDepths.getOrDefault("*", DEFAULT_CORE_QUEUE_DEPTH));
+            bulkhead = bulkheads.computeIfAbsent(core, key -> {
+                SolrBulkhead created = new SolrBulkhead(key, limit, queueDepth);
+                metricsRegistry.registerBulkhead(created);
+                return created;
+            });
+        }
+        return bulkhead;
+    }
+
+    /** The request handler a request is sent to, such as select, get or export. */
+    private static String getHandler(SolrRequest solrRequest) {
+        String path = solrRequest.getPath();
+        int end = path.indexOf('?');
+        path = end < 0 ? path : path.substring(0, end);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
 
-    /*----------------------------------------------------------------------------------------------
-     * PRIVATE HELPER METHODS
-     *--------------------------------------------------------------------------------------------*/
     private void addBasicAuthenticationHeader(HttpRequestBase get, String username, String password) {
         String creds = String.format("%s:%s", username, password);
         byte[] basicAuthBytes = Base64.encodeBase64(creds.getBytes());
         get.setHeader("Authorization", String.format("Basic %s", new String(basicAuthBytes)));
     }
 
-    private String solrQuery(String queryMethod, BridgeRequest request, SolrQualificationParser solrParser) throws BridgeError{
+    /**
+     * Sends a query once a slot of its core's bulkhead (when the core has a concurrency limit)
+     * and one of the concurrent request slots are free. The response body is handed to the
+     * reader as a stream on a decode thread, so neither waiting for a slot nor waiting for Solr
+     * holds the calling thread.
+     */
+    private <T> CompletableFuture<T> solrQuery(SolrRequest solrRequest, SolrQueryMetrics metrics, ResponseReader<T> reader) {
+
+        SolrBulkhead bulkhead = getBulkhead(solrRequest.getCore());
+        if (bulkhead == null) {
+            return limitedSolrQuery(solrRequest, metrics, reader, null);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        bulkhead.acquire().whenComplete((permit, saturated) -> {
+            if (saturated != null) {
+                result.completeExceptionally(saturated);
+                return;
+            }
+            pipe(limitedSolrQuery(solrRequest, metrics, reader, bulkhead), result);
+        });
+        return result;
+    }
+
+    /**
+     * Sends a query once one of the concurrent request slots is free, then releases the permit of
+     * the bulkhead (if any) with the latency of the query. A hedge of the query needs slots of
+     * its own, see hedge.
+     */
+    private <T> CompletableFuture<T> limitedSolrQuery(SolrRequest solrRequest, SolrQueryMetrics metrics,
+        ResponseReader<T> reader, SolrBulkhead bulkhead)
+    {
+
+        SolrRequestLimiter limiter = this.requestLimiter;
+        if (limiter == null) {
+            if (bulkhead != null) bulkhead.release();
+            return failed(new BridgeError("The Solr adapter has not been initialized."));
+        }
+        SolrCircuitBreaker breaker = this.circuitBreaker;
+        if (breaker != null) {
+            try {
+                breaker.acquire(solrRequest.getCore());
+            } catch (BridgeError e) {
+                if (bulkhead != null) bulkhead.release();
+                return failed(e);
+            }
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        limiter.acquire().whenComplete((permit, queueError) -> {
+            if (queueError != null) {
+                if (breaker != null) breaker.onIgnored(solrRequest.getCore());
+                if (bulkhead != null) bulkhead.release();
+                result.completeExceptionally(queueError);
+                return;
+            }
+            long sent = System.nanoTime();
+            // What each failed request says about the health of the core, by its error.
+            Map<Throwable,Health> failures = new ConcurrentHashMap<Throwable,Health>();
+            // A hedge usually lands on another replica, the original request still counts as
+            // outstanding on its node when the least loaded node is picked.
+            SolrHedger queryHedger = this.hedger;
+            CompletableFuture<T> query = queryHedger == null
+                ? solrQuery(solrRequest, metrics, reader, null, false, failures)
+                : queryHedger.execute(() -> solrQuery(solrRequest, metrics, reader, null, false, failures),
+                    () -> hedge(solrRequest, metrics, reader, limiter, bulkhead, failures));
+            // The permits are released before the caller sees the result, so that its next query
+            // finds them free.
+            query.whenComplete((value, error) -> {
+                limiter.release();
+                if (bulkhead != null) bulkhead.release(getHandler(solrRequest), System.nanoTime() - sent);
+                // Only the request the query completed with is reported to the circuit breaker,
+                // a hedge that lost (or failed first) says nothing the winner does not.
+                recordHealth(solrRequest.getCore(),
+                    error == null ? Health.SUCCESS : failures.getOrDefault(error, Health.IGNORED));
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) query.cancel(false);
+            });
+        });
+        return result;
+    }
 
-        String result = null;
-        String url = buildUrl(queryMethod, request);
+    /**
+     * Sends the hedge of a query when one of the concurrent request slots, and a slot of the
+     * core's bulkhead (if any), are free right away. Returns null otherwise, a hedge does not
+     * wait for a slot. The slots are released once the hedge completes or is cancelled.
+     */
+    private <T> CompletableFuture<T> hedge(SolrRequest solrRequest, SolrQueryMetrics metrics,
+        ResponseReader<T> reader, SolrRequestLimiter limiter, SolrBulkhead bulkhead, Map<Throwable,Health> failures)
+    {
+        if (limiter.tryAcquire() == false) {
+            return null;
+        }
+        if (bulkhead != null && bulkhead.tryAcquire() == false) {
+            limiter.release();
+            return null;
+        }
+        long sent = System.nanoTime();
+        CompletableFuture<T> hedge = solrQuery(solrRequest, metrics, reader, null, false, failures);
+        hedge.whenComplete((value, error) -> {
+            limiter.release();
+            if (bulkhead == null) return;
+            // The latency of a hedge that lost the race says nothing about the core.
+            if (hedge.isCancelled()) {
+                bulkhead.release();
+            } else {
+                bulkhead.release(getHandler(solrRequest), System.nanoTime() - sent);
+            }
+        });
+        return hedge;
+    }
 
-        // Initialize the HTTP Client, Response, and Get objects.
-        HttpClient client = HttpClients.createDefault();
-        HttpResponse response;
+    /**
+     * Sends a query to the least loaded node, other than the failed node of a retry. A node that
+     * can not be connected to is ejected and the query is sent once more to another node, as long
+     * as no response was received yet. What a failure says about the health of the core is left
+     * in the failures, by its error, for the caller to report. Cancelling the returned future
+     * aborts the request.
+     */
+    private <T> CompletableFuture<T> solrQuery(SolrRequest solrRequest, SolrQueryMetrics metrics,
+        ResponseReader<T> reader, SolrNodePool.Node failedNode, boolean retry, Map<Throwable,Health> failures)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        SolrNodePool pool = this.nodePool;
+        SolrNodePool.Node node = pool.select(failedNode);
+        String url = solrRequest.getUrl(node.getBaseUrl());
+        logger.trace("Solr URL: {}", url);
+
+        // Initialize the Post object, the pooled client is shared.
         HttpPost post = new HttpPost(url);
 
         // Append the authentication to the call. This example uses Basic Authentication but other
@@ -359,41 +2201,211 @@ public class SolrAdapter implements BridgeAdapter {
             addBasicAuthenticationHeader(post, this.username, this.password);
         }
 
-        post.setEntity(
-            buildRequestBody(queryMethod, request, solrParser)
-        );
+        // Responses are decompressed while they stream in, see SolrResponseConsumer.
+        post.setHeader("Accept-Encoding", "gzip, deflate");
 
-        // Make the call to the REST source to retrieve data and convert the response from an
-        // HttpEntity object into a Java string so more response parsing can be done.
         try {
-            response = client.execute(post);
-            Integer responseStatus = response.getStatusLine().getStatusCode();
-            logger.trace(String.format("Request response code: %s", response.getStatusLine().getStatusCode()));
+            HttpEntity body = solrRequest.getBody(requestCompressionThreshold);
+            post.setEntity(body);
+            metrics.recordRequest(solrRequest.getBodyLength(), body.getContentLength());
+        } catch (IOException exceptionDetails) {
+            result.completeExceptionally(new BridgeError (
+                "Unable to generate the URL encoded HTTP Request body for the Solr API request.",
+                exceptionDetails
+            ));
+            return result;
+        }
 
-            if (responseStatus >= 300 || responseStatus < 200) {
-                HttpEntity entity = response.getEntity();
-                String errorMessage = EntityUtils.toString(entity);
-                throw new BridgeError(
-                    String.format(
-                        "The Solr server returned a HTTP status code of %d, 200 was expected. Response body: %s",
-                        responseStatus,
-                        errorMessage
-                    )
-                );
+        SolrResponseConsumer<T> consumer = new SolrResponseConsumer<T>(reader, decodeExecutor);
+        pool.acquire(node);
+        consumer.getReadResult().whenComplete((value, error) -> {
+            pool.release(node);
+            metrics.recordResponse(consumer.getNetworkNanos(), consumer.getNanosSinceResponse(),
+                consumer.getBytesReceived(), consumer.getBytesDecoded(), consumer.getStatus(), error != null);
+            if (result.isCancelled()) {
+                return;
             }
+            if (error != null && isConnectFailure(error.getCause())) {
+                pool.eject(node);
+                if (retry == false && consumer.isResponseReceived() == false
+                    && pool.select(node) != null)
+                {
+                    pipe(solrQuery(solrRequest, metrics, reader, node, true, failures), result);
+                    return;
+                }
+            }
+            // The async connection pool can not validate a connection before it is leased, the
+            // server may close a kept-alive connection just as a request is sent on it. Such a
+            // request never reached Solr and is sent once more, on a new connection if need be.
+            if (error != null && error.getCause() instanceof ConnectionClosedException
+                && retry == false && consumer.isResponseReceived() == false)
+            {
+                logger.debug("A pooled connection to {} was closed, sending the request again.", node.getBaseUrl());
+                pipe(solrQuery(solrRequest, metrics, reader, null, true, failures), result);
+                return;
+            }
+            if (error != null) {
+                logger.trace("Solr request failed: {}", error.getMessage());
+                failures.put(error, getHealth(consumer, error));
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        try {
+            Future<Void> exchange = client.execute(HttpAsyncMethods.create(post), consumer, consumer.getCallback());
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) exchange.cancel(true);
+            });
+        } catch (RuntimeException e) {
+            consumer.getCallback().failed(e);
+        }
+        return result;
+    }
 
-            HttpEntity entity = response.getEntity();
-            result = EntityUtils.toString(entity);
+    /** Completes the target with the outcome of the source, cancelling the source with it. */
+    private static <T> void pipe(CompletableFuture<T> source, CompletableFuture<T> target) {
+        source.whenComplete((value, error) -> {
+            if (error != null) {
+                target.completeExceptionally(error);
+            } else {
+                target.complete(value);
+            }
+        });
+        target.whenComplete((value, error) -> {
+            if (target.isCancelled()) source.cancel(false);
+        });
+    }
 
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            throw new BridgeError("Unable to make a connection to the Solr server", e);
+    /** True for failures to connect to a node at all, as opposed to a slow or failing node. */
+    private static boolean isConnectFailure(Throwable cause) {
+        return cause instanceof ConnectException
+            || cause instanceof ConnectTimeoutException
+            || cause instanceof NoRouteToHostException
+            || cause instanceof UnknownHostException;
+    }
+
+    /** What the outcome of a request says about the health of its core. */
+    private enum Health { SUCCESS, FAILURE, IGNORED }
+
+    /**
+     * What a failed request says about the health of its core. Connection failures, timeouts and
+     * server errors count against the core, client errors such as an invalid query do not.
+     */
+    private static Health getHealth(SolrResponseConsumer<?> consumer, Throwable error) {
+        if (consumer.getStatus() >= 500
+            || error.getCause() instanceof IOException
+            || error.getCause() instanceof TimeoutException)
+        {
+            return Health.FAILURE;
+        } else if (consumer.isResponseReceived()) {
+            // Solr answered, so it is healthy even though the query was not.
+            return Health.SUCCESS;
         }
-        logger.trace(String.format("Solr response - Raw Output: %s", result));
+        return Health.IGNORED;
+    }
 
+    /** Reports the outcome of a query to the circuit breaker. */
+    private void recordHealth(String core, Health health) {
+        SolrCircuitBreaker breaker = this.circuitBreaker;
+        if (breaker == null) return;
+        if (health == Health.SUCCESS) {
+            breaker.onSuccess(core);
+        } else if (health == Health.FAILURE) {
+            breaker.onFailure(core);
+        } else {
+            breaker.onIgnored(core);
+        }
+    }
+
+    /** Sends a small request, the response is buffered. */
+    private CompletableFuture<HttpResponse> send(HttpUriRequest request) {
+        CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+        try {
+            client.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse value) {
+                    response.complete(value);
+                }
+
+                @Override
+                public void failed(Exception exception) {
+                    response.completeExceptionally(exception);
+                }
+
+                @Override
+                public void cancelled() {
+                    response.cancel(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /** Sends a small request and waits for the buffered response. */
+    private HttpResponse execute(HttpUriRequest request) throws IOException {
+        try {
+            return send(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Solr server.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** Waits for an asynchronous bridge call, rethrowing the BridgeError it failed with. */
+    private static <T> T await(CompletableFuture<T> future) throws BridgeError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for the Solr server.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BridgeError) throw (BridgeError)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new BridgeError("The Solr request failed.", cause);
+        }
+    }
+
+    /** The error a dependent future failed with, rather than the CompletionException wrapping it. */
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
         return result;
     }
 
+    private static Long getNumFound(SolrResponseDecoder decoder) throws BridgeError {
+        if (decoder.getNumFound() == null) {
+            throw new BridgeError("The Solr response did not include a response.numFound value.");
+        }
+        return decoder.getNumFound();
+    }
+
+    static String readString(InputStream content, Charset charset) throws IOException {
+        StringBuilder result = new StringBuilder();
+        Reader reader = new InputStreamReader(content, charset);
+        char[] buffer = new char[8192];
+        int length;
+        while ((length = reader.read(buffer)) != -1) {
+            result.append(buffer, 0, length);
+        }
+        logger.trace(String.format("Solr response - Raw Output: %s", result));
+        return result.toString();
+    }
+
     private void testAuthenticationValues(String restEndpoint, String username, String password) throws BridgeError {
         logger.debug("Testing the authentication credentials");
         HttpGet get = new HttpGet(String.format("%s/admin/cores?action=STATUS",restEndpoint));
@@ -402,12 +2414,9 @@ public class SolrAdapter implements BridgeAdapter {
             addBasicAuthenticationHeader(get, this.username, this.password);
         }
 
-        HttpClient client = HttpClients.createDefault();
-        HttpResponse response;
         try {
-            response = client.execute(get);
-            HttpEntity entity = response.getEntity();
-            EntityUtils.consume(entity);
+            HttpResponse response = execute(get);
+            EntityUtils.consume(response.getEntity());
             Integer responseCode = response.getStatusLine().getStatusCode();
             if (responseCode == 401) {
                 throw new BridgeError("Unauthorized: The inputted Username/Password combination is not valid.");
@@ -0,0 +1,189 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of Solr requests in flight to one core, so that a slow core can not take every
+ * request slot (and every waiting caller) from the others. Requests over the limit wait in
+ * arrival order up to the queue depth, beyond it they fail right away with a BridgeError.
+ *
+ * The limit adapts to the latency of the core (additive increase, multiplicative decrease). Each
+ * request is compared to the no-load latency of its type of request (the fastest one lately), as
+ * an export is always slower than a real-time get. A request much slower than that backs the
+ * limit off, at most once per round trip: requests that were sent before the last back off
+ * already saw the load it reacted to. Any other request raises the limit by about one per
+ * limit's worth of requests, up to the configured maximum.
+ */
+public class SolrBulkhead implements SolrBulkheadMXBean {
+
+    /** A request slower than this multiple of the no-load latency of its type backs the limit off. */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /** The share of the limit kept when it backs off. */
+    private static final double BACKOFF_RATIO = 0.9;
+    /**
+     * Number of requests of a type after which its no-load latency is taken afresh from the
+     * fastest of them, so that it follows lasting changes in either direction.
+     */
+    private static final int BASELINE_WINDOW = 500;
+
+    private final String core;
+    private final int maximumLimit;
+    private final int queueDepth;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    // Guarded by this.
+    private double limit;
+    private int active;
+    private final Map<String,Baseline> baselines = new HashMap<>();
+    private boolean backedOff;
+    private long lastBackoffNanos;
+
+    private final LongAdder rejections = new LongAdder();
+
+    SolrBulkhead(String core, int maximumLimit, int queueDepth) {
+        this.core = core;
+        this.maximumLimit = maximumLimit;
+        this.limit = maximumLimit;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Completes once a request may be sent, the caller must release the permit afterwards.
+     * Fails with a BridgeError when the core is at its limit and its queue is full.
+     */
+    CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (this) {
+            if (active < (int)limit) {
+                active++;
+                permit.complete(null);
+                return permit;
+            }
+            if (waiters.size() < queueDepth) {
+                waiters.add(permit);
+                return permit;
+            }
+        }
+        rejections.increment();
+        permit.completeExceptionally(new BridgeError(String.format(
+            "The %s core is saturated, %d Solr requests are in flight and %d are waiting.",
+            core, getActiveCount(), queueDepth)));
+        return permit;
+    }
+
+    /**
+     * Takes a permit only when one is free right away and no request is waiting for one, the
+     * caller must release it afterwards. Used for hedges, which are not worth waiting for.
+     */
+    synchronized boolean tryAcquire() {
+        if (active < (int)limit && waiters.isEmpty()) {
+            active++;
+            return true;
+        }
+        return false;
+    }
+
+    /** Releases a permit without adapting the limit, such as for a request that was never sent. */
+    void release() {
+        release(null, -1);
+    }
+
+    /**
+     * Releases a permit, adapting the limit to the latency of the request (the time from sending
+     * it to its completion) compared to other requests of its type, such as the request handler.
+     */
+    void release(String requestType, long latencyNanos) {
+        List<CompletableFuture<Void>> woken = new ArrayList<>();
+        synchronized (this) {
+            if (requestType != null && latencyNanos >= 0) {
+                adapt(requestType, latencyNanos, System.nanoTime());
+            }
+            active--;
+            // The limit may have grown past the permit that was released.
+            while (active < (int)limit && waiters.isEmpty() == false) {
+                woken.add(waiters.poll());
+                active++;
+            }
+        }
+        for (CompletableFuture<Void> waiter : woken) {
+            waiter.complete(null);
+        }
+    }
+
+    private void adapt(String requestType, long latencyNanos, long now) {
+        Baseline baseline = baselines.computeIfAbsent(requestType, type -> new Baseline());
+        if (baseline.isSlow(latencyNanos)) {
+            if (backedOff == false || now - latencyNanos - lastBackoffNanos >= 0) {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                backedOff = true;
+                lastBackoffNanos = now;
+            }
+        } else {
+            limit = Math.min(maximumLimit, limit + 1 / limit);
+        }
+        baseline.record(latencyNanos);
+    }
+
+    /** The no-load latency of one type of request. */
+    private static final class Baseline {
+        private long minimumNanos = Long.MAX_VALUE;
+        private long windowMinimumNanos = Long.MAX_VALUE;
+        private int windowCount;
+
+        boolean isSlow(long latencyNanos) {
+            return minimumNanos != Long.MAX_VALUE && latencyNanos > minimumNanos * LATENCY_TOLERANCE;
+        }
+
+        void record(long latencyNanos) {
+            minimumNanos = Math.min(minimumNanos, latencyNanos);
+            windowMinimumNanos = Math.min(windowMinimumNanos, latencyNanos);
+            if (++windowCount >= BASELINE_WINDOW) {
+                minimumNanos = windowMinimumNanos;
+                windowMinimumNanos = Long.MAX_VALUE;
+                windowCount = 0;
+            }
+        }
+    }
+
+    @Override
+    public String getCore() {
+        return core;
+    }
+
+    @Override
+    public int getMaximumLimit() {
+        return maximumLimit;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    @Override
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    @Override
+    public synchronized int getQueueLength() {
+        return waiters.size();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+/** The JMX view of the bulkhead of one core. */
+public interface SolrBulkheadMXBean {
+
+    String getCore();
+
+    /** The configured maximum of the limit. */
+    int getMaximumLimit();
+
+    /** The current number of requests allowed in flight. */
+    int getLimit();
+
+    /** Number of requests currently in flight. */
+    int getActiveCount();
+
+    /** Number of requests currently waiting for a permit. */
+    int getQueueLength();
+
+    /** The most requests that may wait for a permit. */
+    int getQueueDepth();
+
+    /** Number of requests that failed because the core was saturated. */
+    long getRejectionCount();
+
+}
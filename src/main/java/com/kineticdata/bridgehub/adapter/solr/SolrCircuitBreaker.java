@@ -0,0 +1,133 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker per core. A core's circuit opens after a number of consecutive failed
+ * requests (connection failures, timeouts and server errors), after which its queries fail fast
+ * instead of piling up behind an unhealthy Solr. Once the open duration has passed the circuit is
+ * half open and lets a single query through as a probe, which closes the circuit again when it
+ * succeeds and re-opens it when it fails.
+ */
+public class SolrCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SolrCircuitBreaker.class);
+
+    /** The states of a circuit. */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final class Circuit {
+        State state = State.CLOSED;
+        int failures;
+        long openedAt;
+        boolean probing;
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ConcurrentHashMap<String,Circuit> circuits = new ConcurrentHashMap<>();
+
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder trips = new LongAdder();
+
+    SolrCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Throws a BridgeError when the core's circuit is open, or half open with its probe already in
+     * flight. A request that is let through must report its outcome.
+     */
+    void acquire(String core) throws BridgeError {
+        Circuit circuit = circuits.computeIfAbsent(core, key -> new Circuit());
+        long remainingMillis;
+        synchronized (circuit) {
+            if (circuit.state == State.CLOSED) {
+                return;
+            }
+            remainingMillis = circuit.openedAt + openMillis - System.currentTimeMillis();
+            if (circuit.state == State.OPEN && remainingMillis <= 0) {
+                circuit.state = State.HALF_OPEN;
+            }
+            if (circuit.state == State.HALF_OPEN && circuit.probing == false) {
+                circuit.probing = true;
+                return;
+            }
+        }
+        rejections.increment();
+        throw new BridgeError(String.format(
+            "Solr requests for the %s core are failing fast after %d consecutive failures, "
+                + "the core will be tried again in %d seconds.",
+            core, failureThreshold, Math.max(0, TimeUnit.MILLISECONDS.toSeconds(remainingMillis + 999))));
+    }
+
+    void onSuccess(String core) {
+        Circuit circuit = circuits.get(core);
+        if (circuit == null) return;
+        synchronized (circuit) {
+            if (circuit.state != State.CLOSED) {
+                logger.info("Closed the circuit breaker of the {} core.", core);
+            }
+            circuit.state = State.CLOSED;
+            circuit.failures = 0;
+            circuit.probing = false;
+        }
+    }
+
+    void onFailure(String core) {
+        Circuit circuit = circuits.get(core);
+        if (circuit == null) return;
+        synchronized (circuit) {
+            circuit.failures++;
+            if (circuit.state == State.HALF_OPEN
+                || (circuit.state == State.CLOSED && circuit.failures >= failureThreshold))
+            {
+                logger.warn("Opened the circuit breaker of the {} core after {} consecutive failures.",
+                    core, circuit.failures);
+                circuit.state = State.OPEN;
+                circuit.openedAt = System.currentTimeMillis();
+                circuit.probing = false;
+                trips.increment();
+            }
+        }
+    }
+
+    /** For a request that ended without telling anything about Solr's health. */
+    void onIgnored(String core) {
+        Circuit circuit = circuits.get(core);
+        if (circuit == null) return;
+        synchronized (circuit) {
+            circuit.probing = false;
+        }
+    }
+
+    /** The state of the circuit of each core that has been queried. */
+    public Map<String,State> getStates() {
+        Map<String,State> states = new LinkedHashMap<>();
+        for (Map.Entry<String,Circuit> entry : circuits.entrySet()) {
+            synchronized (entry.getValue()) {
+                states.put(entry.getKey(), entry.getValue().state);
+            }
+        }
+        return states;
+    }
+
+    /** Number of requests that failed fast because their circuit was open. */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /** Number of times a circuit opened. */
+    public long getTripCount() {
+        return trips.sum();
+    }
+
+}
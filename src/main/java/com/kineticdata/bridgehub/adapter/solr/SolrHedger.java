@@ -0,0 +1,189 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Sends a duplicate (hedge) of a query that has not been answered within the hedge delay. The
+ * first successful answer wins and the other request is cancelled. The delay is a fixed number of
+ * milliseconds, a percentile of recent query latencies, or the larger of the two when both are
+ * configured.
+ *
+ * Hedges are limited by a budget: every query earns a percentage of a hedge and a hedge is only
+ * sent when a whole one has been earned, so hedges never exceed that percentage of the queries
+ * sent (apart from a small burst allowance).
+ */
+public class SolrHedger {
+
+    /** Number of recent latencies the percentile is taken from. */
+    private static final int LATENCY_WINDOW = 512;
+    /** Number of latencies needed before the percentile is used. */
+    private static final int MINIMUM_SAMPLES = 32;
+    /** The percentile is recomputed after this many new latencies. */
+    private static final int RECOMPUTE_INTERVAL = 32;
+    /** Number of hedges that can be saved up by a stretch of fast queries. */
+    private static final int BUDGET_BURST = 10;
+
+    private final long fixedDelayMillis;
+    private final int percentile;
+    private final int budgetPercent;
+    private final ScheduledExecutorService scheduler;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int nextLatency;
+    private int latencyCount;
+    private int sinceRecompute;
+    private volatile long percentileMillis = -1;
+    // Hedge budget in hundredths of a hedge.
+    private final AtomicLong budget = new AtomicLong();
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetDenials = new LongAdder();
+    private final LongAdder slotDenials = new LongAdder();
+
+    SolrHedger(long fixedDelayMillis, int percentile, int budgetPercent, ScheduledExecutorService scheduler) {
+        this.fixedDelayMillis = fixedDelayMillis;
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sends a query, and a hedge of it when it is slow. Cancelling the returned future cancels
+     * every request that is still outstanding.
+     */
+    <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt) {
+        return execute(attempt, attempt);
+    }
+
+    /**
+     * Sends a query with the attempt, and a hedge of it with the hedge when it is slow. The hedge
+     * returns null when it can not be sent right away, such as when no request slot is free, in
+     * which case the query goes on alone and the budget is refunded.
+     */
+    <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt, Supplier<CompletableFuture<T>> hedge) {
+        queries.increment();
+        budget.updateAndGet(value -> Math.min(value + budgetPercent, BUDGET_BURST * 100L));
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<CompletableFuture<T>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        result.whenComplete((value, error) -> attempts.forEach(outstanding -> outstanding.cancel(false)));
+
+        long delayMillis = getDelayMillis();
+        ScheduledFuture<?> timer = null;
+        if (delayMillis >= 0) {
+            timer = scheduler.schedule(() -> {
+                if (result.isDone() || tryConsumeBudget() == false) return;
+                pending.incrementAndGet();
+                CompletableFuture<T> request = hedge.get();
+                if (request == null) {
+                    slotDenials.increment();
+                    budget.updateAndGet(value -> Math.min(value + 100, BUDGET_BURST * 100L));
+                    // The query may have failed while the hedge was being tried.
+                    if (pending.decrementAndGet() == 0) result.completeExceptionally(firstError.get());
+                    return;
+                }
+                hedges.increment();
+                race(request, true, result, attempts, pending, firstError);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        ScheduledFuture<?> hedgeTimer = timer;
+        result.whenComplete((value, error) -> {
+            if (hedgeTimer != null) hedgeTimer.cancel(false);
+        });
+        race(attempt.get(), false, result, attempts, pending, firstError);
+        return result;
+    }
+
+    private <T> void race(CompletableFuture<T> request, boolean isHedge, CompletableFuture<T> result,
+        List<CompletableFuture<T>> attempts, AtomicInteger pending, AtomicReference<Throwable> firstError)
+    {
+        long start = System.nanoTime();
+        attempts.add(request);
+        // The result may have completed while the request was being sent.
+        if (result.isDone()) request.cancel(false);
+        request.whenComplete((value, error) -> {
+            if (error == null) {
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (result.complete(value) && isHedge) hedgeWins.increment();
+            } else {
+                firstError.compareAndSet(null, error);
+                // Wait for the other request unless this was the last one.
+                if (pending.decrementAndGet() == 0) result.completeExceptionally(firstError.get());
+            }
+        });
+    }
+
+    private boolean tryConsumeBudget() {
+        while (true) {
+            long current = budget.get();
+            if (current < 100) {
+                budgetDenials.increment();
+                return false;
+            }
+            if (budget.compareAndSet(current, current - 100)) return true;
+        }
+    }
+
+    /** The current hedge delay, -1 while there are too few latencies for the percentile. */
+    public long getDelayMillis() {
+        if (percentile <= 0) {
+            return fixedDelayMillis;
+        }
+        long current = percentileMillis;
+        return current < 0 && fixedDelayMillis <= 0 ? -1 : Math.max(current, fixedDelayMillis);
+    }
+
+    private synchronized void recordLatency(long millis) {
+        if (percentile <= 0) return;
+        latencies[nextLatency] = millis;
+        nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+        if (latencyCount >= MINIMUM_SAMPLES && ++sinceRecompute >= RECOMPUTE_INTERVAL) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(sorted.length * percentile / 100.0) - 1;
+            percentileMillis = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    /** Number of hedges sent. */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /** Number of hedges that answered before the request they duplicated. */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    /** Number of hedges that were not sent because the budget was spent. */
+    public long getBudgetDenialCount() {
+        return budgetDenials.sum();
+    }
+
+    /** Number of hedges that were not sent because no request slot was free. */
+    public long getSlotDenialCount() {
+        return slotDenials.sum();
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+/**
+ * Where the adapter records its metrics. The default registry keeps histograms and counters in
+ * memory and publishes them as JMX MBeans, another registry can be set on the adapter to forward
+ * them to a different metrics system.
+ */
+public interface SolrMetricsRegistry {
+
+    /**
+     * Returns the metrics of a bridge method (count, retrieve or search) for a core. This is
+     * called for every bridge call, so implementations should hand out the same instance for the
+     * same method and core rather than building a new one.
+     */
+    SolrQueryMetrics getQueryMetrics(String method, String core);
+
+    /**
+     * Publishes the bulkhead of a core (its current limit, requests in flight and queue length),
+     * called once for each core that has a concurrency limit. Ignored unless overridden.
+     */
+    default void registerBulkhead(SolrBulkheadMXBean bulkhead) {
+    }
+
+    /** Releases whatever the registry published, called when the adapter is destroyed. */
+    void close();
+
+}
@@ -0,0 +1,131 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers concurrent calls that can be answered by one Solr request into a batch. The first call
+ * for a batch key opens a batch, calls with the same key join it until the batch window has
+ * passed or the batch is full, then the batch is sent as one request and each call is handed its
+ * own part of the answer. A failed batch fails every call in it.
+ *
+ * Calls with the same key must be interchangeable apart from their item, the batch is sent with
+ * the execution of the call that opened it.
+ */
+public class SolrMicroBatcher<I,R> {
+
+    /** Sends a batch, completing with one result for each item in the order of the items. */
+    interface BatchExecution<I,R> {
+        CompletableFuture<List<R>> execute(List<I> items) throws BridgeError;
+    }
+
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+    // Batches still gathering calls, guarded by this.
+    private final Map<String,Batch<I,R>> openBatches = new HashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+
+    private static final class Batch<I,R> {
+        final String key;
+        final BatchExecution<I,R> execution;
+        final List<I> items = new ArrayList<>();
+        final List<CompletableFuture<R>> results = new ArrayList<>();
+        ScheduledFuture<?> timer;
+
+        Batch(String key, BatchExecution<I,R> execution) {
+            this.key = key;
+            this.execution = execution;
+        }
+    }
+
+    SolrMicroBatcher(int maxBatchSize, long windowMillis, ScheduledExecutorService scheduler) {
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.scheduler = scheduler;
+    }
+
+    /** Adds the item to the open batch for the key, opening one with the execution if needed. */
+    CompletableFuture<R> submit(String key, I item, BatchExecution<I,R> execution) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        Batch<I,R> full = null;
+        synchronized (this) {
+            Batch<I,R> batch = openBatches.get(key);
+            if (batch == null) {
+                Batch<I,R> opened = new Batch<>(key, execution);
+                opened.timer = scheduler.schedule(() -> close(opened), windowMillis, TimeUnit.MILLISECONDS);
+                openBatches.put(key, opened);
+                batch = opened;
+            }
+            batch.items.add(item);
+            batch.results.add(result);
+            if (batch.items.size() >= maxBatchSize) {
+                openBatches.remove(key);
+                batch.timer.cancel(false);
+                full = batch;
+            }
+        }
+        if (full != null) send(full);
+        return result;
+    }
+
+    /** Sends the batch once its window has passed, unless it was sent when it filled up. */
+    private void close(Batch<I,R> batch) {
+        synchronized (this) {
+            if (openBatches.get(batch.key) != batch) return;
+            openBatches.remove(batch.key);
+        }
+        send(batch);
+    }
+
+    private void send(Batch<I,R> batch) {
+        batches.increment();
+        calls.add(batch.items.size());
+        CompletableFuture<List<R>> answer;
+        try {
+            answer = batch.execution.execute(batch.items);
+        } catch (BridgeError | RuntimeException e) {
+            answer = new CompletableFuture<>();
+            answer.completeExceptionally(e);
+        }
+        answer.whenComplete((values, error) -> {
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null)
+                ? error.getCause() : error;
+            for (int i = 0; i < batch.results.size(); i++) {
+                if (cause != null) {
+                    batch.results.get(i).completeExceptionally(cause);
+                } else {
+                    batch.results.get(i).complete(values.get(i));
+                }
+            }
+        });
+    }
+
+    /** Number of batch requests sent to Solr. */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /** Number of calls answered by batch requests. */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /** Average number of calls answered by a batch request, 0 before any batch. */
+    public double getAverageBatchSize() {
+        long sent = batches.sum();
+        return sent == 0 ? 0 : (double)calls.sum() / sent;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Solr nodes queries are spread across. Each query goes to the available node with the fewest
+ * requests outstanding, ties are broken round robin. A node is ejected when a request to it fails
+ * at the connection level and stays out of the rotation until a background probe reaches it
+ * again. When every node is ejected queries still go to the least loaded one, since a failing
+ * request is better than none at all.
+ */
+public class SolrNodePool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SolrNodePool.class);
+
+    /** A Solr node and its health and load. */
+    public static class Node {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean available = true;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Node(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        /** The base url of the node, such as http://solr1:8983/solr. */
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /** False while the node is ejected. */
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /** Number of requests currently sent to the node. */
+        public int getOutstandingCount() {
+            return outstanding.get();
+        }
+
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /** Number of requests that failed at the connection level. */
+        public long getFailureCount() {
+            return failures.sum();
+        }
+    }
+
+    private volatile List<Node> nodes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    SolrNodePool(List<String> baseUrls) {
+        setBaseUrls(baseUrls);
+    }
+
+    /**
+     * Replaces the nodes of the pool, such as after the live nodes of a cluster changed. Nodes
+     * that are still part of the pool keep their state.
+     */
+    synchronized void setBaseUrls(List<String> baseUrls) {
+        List<Node> previous = (this.nodes == null) ? Collections.<Node>emptyList() : this.nodes;
+        List<Node> updated = new ArrayList<Node>();
+        for (String baseUrl : baseUrls) {
+            Node node = null;
+            for (Node candidate : previous) {
+                if (candidate.baseUrl.equals(baseUrl)) node = candidate;
+            }
+            updated.add(node == null ? new Node(baseUrl) : node);
+        }
+        this.nodes = Collections.unmodifiableList(updated);
+    }
+
+    /** The nodes of the pool. */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the node the next request should go to, skipping the excluded node (the one a
+     * request is being retried away from). Null when there is no other node to choose.
+     */
+    Node select(Node excluded) {
+        List<Node> current = this.nodes;
+        int size = current.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        Node selected = null;
+        for (int i = 0; i < size; i++) {
+            Node node = current.get((start + i) % size);
+            if (node == excluded) continue;
+            if (selected == null
+                || (node.available && selected.available == false)
+                || (node.available == selected.available && node.outstanding.get() < selected.outstanding.get()))
+            {
+                selected = node;
+            }
+        }
+        return selected;
+    }
+
+    void acquire(Node node) {
+        node.requests.increment();
+        node.outstanding.incrementAndGet();
+    }
+
+    void release(Node node) {
+        node.outstanding.decrementAndGet();
+    }
+
+    /** Takes a node out of the rotation after a connection level failure. */
+    void eject(Node node) {
+        node.failures.increment();
+        if (node.available) {
+            node.available = false;
+            logger.warn("Ejected the Solr node {} after a failed request.", node.baseUrl);
+        }
+    }
+
+    /** Puts a node back into the rotation once it can be reached again. */
+    void reinstate(Node node) {
+        if (node.available == false) {
+            node.available = true;
+            logger.info("The Solr node {} is reachable again.", node.baseUrl);
+        }
+    }
+
+}
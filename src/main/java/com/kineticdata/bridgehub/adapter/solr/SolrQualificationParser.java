@@ -2,8 +2,11 @@ package com.kineticdata.bridgehub.adapter.solr;
 
 import com.kineticdata.bridgehub.adapter.BridgeError;
 import com.kineticdata.bridgehub.adapter.QualificationParser;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -23,52 +26,62 @@ public class SolrQualificationParser extends QualificationParser {
     public static String QUERY_PATTERN_JSON = "^\\s*\\{.*?\\}\\s*$";
     public static String QUERY_STYLE_KINETIC = "Kinetic DSL";
     public static String QUERY_STYLE_SOLR = "Solr DSL";
-    
-    private Map<String, Object> queryMetadata = null;
+
+    /** Maximum number of distinct bridge queries whose compiled templates are kept. */
+    private static final int TEMPLATE_CACHE_SIZE = 512;
+    /** Compiled templates shared by every parser, keyed by the raw bridge query. */
+    private static final LruCache<String, QueryTemplate> TEMPLATE_CACHE = new LruCache<>(TEMPLATE_CACHE_SIZE);
+
+    private static final Pattern PARAMETER_GROUP_MATCH = Pattern.compile(PARAMETER_PATTERN_GROUP_MATCH);
+    private static final Pattern PARAMETER_JSON_SAFE = Pattern.compile(PARAMETER_PATTERN_JSON_SAFE);
+    private static final Pattern PARAMETER = Pattern.compile(QualificationParser.PARAMETER_PATTERN);
+    private static final Pattern QUERY_JSON = Pattern.compile(QUERY_PATTERN_JSON);
+    private static final Pattern QUERY_SINGLE_PARAMETER = Pattern.compile("^\\s*<%= parameter\\['.*?'\\] %>\\s*$");
+    /** Request parameters the adapter sets itself, which the query metadata "params" can not set. */
+    private static final List<String> RESERVED_PARAMS =
+        Arrays.asList("q", "json", "fl", "sort", "rows", "start", "wt", "cursorMark", "echoParams");
+
+    private QueryTemplate template = null;
+    /** Reused to bind each query of this parser. */
+    private final StringBuilder buffer = new StringBuilder();
     
     @Override
     public String encodeParameter(String name, String value) {
         String result = null;
         //http://lucene.apache.org/core/4_0_0/queryparser/org/apache/lucene/queryparser/classic/package-summary.html#Escaping_Special_Characters
-        //Next three lines: escape the following characters with a backslash: + - = && || > < ! ( ) { } [ ] ^ " ~ * ? : \ /  
-        String regexReservedCharactersPattern = "(\\*|\\+|\\-|\\=|\\~|\\>|\\<|\\\"|\\?|\\^|\\$|\\{|\\}|\\(|\\)|\\:|\\!|\\/|\\[|\\]|\\\\|\\s)";
+        //Escape the following characters with a backslash: + - = && || > < ! ( ) { } [ ] ^ " ~ * ? : \ / $ and whitespace, and the words AND OR NOT with two.
         if (StringUtils.isNotEmpty(value)) {
-            result = value.replaceAll(regexReservedCharactersPattern, Matcher.quoteReplacement("\\") + "$1")
-                .replaceAll("\\|\\|", "\\\\||")
-                .replaceAll("\\&\\&", "\\\\&&")
-                .replaceAll("\\b+AND\\b+", Matcher.quoteReplacement("\\\\AND"))
-                .replaceAll("\\b+OR\\b+", Matcher.quoteReplacement("\\\\OR"))
-                .replaceAll("\\b+NOT\\b+", Matcher.quoteReplacement("\\\\NOT"));
+            StringBuilder encoded = new StringBuilder(value.length() + 16);
+            QueryEscaper.appendLucene(encoded, value);
+            result = encoded.toString();
         }
         return result;
     }
     
+    /** Appends what encodeParameter returns for the value without building an intermediate string. */
+    private static void appendEncoded(StringBuilder query, String value) {
+        if (StringUtils.isNotEmpty(value)) {
+            QueryEscaper.appendLucene(query, value);
+        } else {
+            // Matches appending the null encodeParameter returns for an empty value.
+            query.append((String)null);
+        }
+    }
+    
     @Override
     public String parse(String query, Map<String, String> parameters) throws BridgeError {
 
         String parsedQuery = new String();
-        parseMetadataJson(query);
-        // Change <%= parameter["asdf"] %> to <%= parameter['asdf'] %> so we can parse the bridge query JSON.
-        query = query.replaceAll(PARAMETER_PATTERN_GROUP_MATCH, "<%= parameter['$1'] %>");
+        QueryTemplate queryTemplate = getTemplate(query);
         
-        if (queryMetadata != null) {
+        if (queryTemplate.metadata != null) {
 
-            String queryType = (String)queryMetadata.get("type");
-            String jsonQuery = (String)queryMetadata.get("query");
+            String queryType = queryTemplate.queryType;
 
             if (StringUtils.equalsIgnoreCase(queryType, QUERY_STYLE_KINETIC)) {
-                String concateOperator = (String)queryMetadata.get("concateOperator");
-                String queryPrefix = (String)queryMetadata.get("queryPrefix");
-                List<String> whitelistFields = (List<String>)queryMetadata.get("whitelistFields");
-                parsedQuery = parseDslKinetic(
-                    queryPrefix, 
-                    whitelistFields, 
-                    concateOperator, 
-                    jsonQuery, 
-                    parameters
-                );
+                parsedQuery = parseDslKinetic(queryTemplate, parameters);
             } else if (StringUtils.equalsIgnoreCase(queryType, QUERY_STYLE_SOLR)) {
-                parsedQuery = parseDslSolr(true, jsonQuery, parameters);
+                parsedQuery = parseDslSolr(true, queryTemplate, parameters);
             } else {
                 throw new BridgeError(
                     String.format(
@@ -80,7 +93,7 @@ public class SolrQualificationParser extends QualificationParser {
             }
             
         } else {
-            parsedQuery = parseDslSolr(false, query, parameters);
+            parsedQuery = parseDslSolr(false, queryTemplate, parameters);
         }
         
         return parsedQuery;
@@ -94,14 +107,39 @@ public class SolrQualificationParser extends QualificationParser {
     
     public String getJsonRootPath(String query) throws BridgeError {
         
-        String jsonRootPath = null;
-        // parseMetadataJson sets instance variable queryMetadata
-        this.parseMetadataJson(query);
-        if (this.queryMetadata != null) {
-            String metadataRoot = (String)queryMetadata.get("jsonRootPath");
-            if (StringUtils.isNotBlank(metadataRoot)) jsonRootPath = metadataRoot;
+        return getTemplate(query).jsonRootPath;
+        
+    }
+    
+    /** The responseFormat of the query metadata, null when the query does not choose one. */
+    public String getResponseFormat(String query) throws BridgeError {
+        
+        return getTemplate(query).responseFormat;
+        
+    }
+    
+    /** Whether the query metadata asks for every matching document through the /export handler. */
+    public boolean isExport(String query) throws BridgeError {
+        
+        return getTemplate(query).export;
+        
+    }
+    
+    /**
+     * The Solr request parameters of the query metadata "params" object, such as fq, with the
+     * parameter values bound into them as escaped Lucene query text. Empty when there are none.
+     */
+    public Map<String, List<String>> getParams(String query, Map<String, String> parameters) throws BridgeError {
+        
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Segments>> param : getTemplate(query).params.entrySet()) {
+            List<String> values = new ArrayList<>(param.getValue().size());
+            for (Segments value : param.getValue()) {
+                values.add(value.bind(this, Encoding.LUCENE, parameters));
+            }
+            params.put(param.getKey(), values);
         }
-        return jsonRootPath;
+        return params;
         
     }
     
@@ -110,26 +148,28 @@ public class SolrQualificationParser extends QualificationParser {
      * PRIVATE HELPER METHODS
      *--------------------------------------------------------------------------------------------*/
     
-    private String parseDslKinetic(String queryPrefix, List<String> whitelistedFields, String concateOperator, String jsonQuery, Map<String, String> parameters) throws BridgeError {
+    private String parseDslKinetic(QueryTemplate queryTemplate, Map<String, String> parameters) throws BridgeError {
 
+        String queryPrefix = queryTemplate.queryPrefix;
+        List<String> whitelistedFields = queryTemplate.whitelistedFields;
+        String concateOperator = queryTemplate.concateOperator;
         Map<String, Object> queryConcatenation = new HashMap();
         StringBuilder query = new StringBuilder();
         if (StringUtils.isNotBlank(queryPrefix)) {
             query
                 .append(
-                    parameterReplacement(true, queryPrefix, parameters)
+                    queryTemplate.queryPrefixSegments.bind(this, Encoding.NONE, parameters)
                 )
                 .append(" && ( ");
         }
         if (StringUtils.isBlank(concateOperator)) {
             concateOperator = "&&";
         }
-        if (StringUtils.isBlank(jsonQuery)) {
+        if (StringUtils.isBlank(queryTemplate.query)) {
             throw new BridgeError("The Kinetic DSL query parameter value was not specified or was blank. The 'query' key is required.");
         }
         
-        jsonQuery = jsonQuery.replaceAll(PARAMETER_PATTERN_JSON_SAFE, "<%= parameter[\"$1\"] %>");
-        jsonQuery = parameterReplacement(false, jsonQuery, parameters);
+        String jsonQuery = queryTemplate.querySegments.bind(this, Encoding.NONE, parameters);
         
         try {
             queryConcatenation = (Map<String, Object>)JSONValue.parseWithException(jsonQuery);
@@ -171,7 +211,7 @@ public class SolrQualificationParser extends QualificationParser {
                         if (matchType.equals("endsWith") || matchType.equals("like")) {
                             query.append("*");
                         }
-                        query.append(encodeParameter(fieldName, valueStr));
+                        appendEncoded(query, valueStr);
                         if (matchType.equals("startsWith") || matchType.equals("like")) {
                             query.append("*");
                         }
@@ -188,7 +228,7 @@ public class SolrQualificationParser extends QualificationParser {
                             if (matchType.equals("endsWith") || matchType.equals("like")) {
                                 query.append("*");
                             }
-                            query.append(encodeParameter(fieldName, value));
+                            appendEncoded(query, value);
                             if (matchType.equals("startsWith") || matchType.equals("like")) {
                                 query.append("*");
                             }
@@ -229,111 +269,231 @@ public class SolrQualificationParser extends QualificationParser {
         return query.toString();
     }
 
-    private String parseDslSolr(boolean isJsonQuery, String solrQuery, Map<String, String> parameters) throws BridgeError {
-        
-        StringBuffer resultBuffer = new StringBuffer();
-        Pattern pattern = Pattern.compile(PARAMETER_PATTERN_JSON_SAFE);
-        Matcher matcher = pattern.matcher(solrQuery);
+    private String parseDslSolr(boolean isJsonQuery, QueryTemplate queryTemplate, Map<String, String> parameters) throws BridgeError {
         
-        if (solrQuery.matches("^\\s*<%= parameter\\['.*?'\\] %>\\s*$")) {
-            matcher.find();
-            String parameterName = matcher.group(1);
-            String parameterValue = parameters.get(parameterName);
-            resultBuffer.append(
-                solrQuery.replaceFirst(
-                    PARAMETER_PATTERN_JSON_SAFE, 
-                    parameterValue
-                )
-            );
+        if (queryTemplate.singleParameter != null) {
+            // The query is nothing but a parameter, its value is used as is.
+            String parameterValue = getParameterValue(queryTemplate.singleParameter, parameters);
+            return PARAMETER_JSON_SAFE.matcher(queryTemplate.query).replaceFirst(parameterValue);
         } else {
-            while (matcher.find()) {
-                // Retrieve the necessary values
-                String parameterName = matcher.group(1);
-                // If there were no parameters provided
-                if (parameters == null) {
-                    throw new BridgeError("Unable to parse qualification, "+
-                        "the '"+parameterName+"' parameter was referenced but no "+
-                        "parameters were provided.");
-                }
-                String parameterValue = parameters.get(parameterName);
-                // If there is a reference to a parameter that was not passed
-                if (parameterValue == null) {
-                    throw new BridgeError("Unable to parse qualification, "+
-                        "the '"+parameterName+"' parameter was referenced but "+
-                        "not provided.");
-                }
+            // If the query string starts with a curly brace, this is a JSON payload so escape any
+            // JSON special characters, else it is supposed to be a query used for the q parameter
+            // in a URI Search so escape any Lucene query syntax reserved characters.
+            return queryTemplate.querySegments.bind(
+                this, isJsonQuery ? Encoding.JSON : Encoding.LUCENE, parameters);
+        }
 
-                String value;
-                // If the query string starts with a curly brace, this is a JSON payload.
-                // else it is supposed to be a query used for the q parameter in a URI Search
-                if (isJsonQuery) {
-                    // if JSON, escape any JSON special characters.
-                    value = JSONValue.escape(parameterValue);
+    }
+    
+    private QueryTemplate getTemplate(String query) throws BridgeError {
+        // Only look the template up once per parser.
+        if (template != null && template.rawQuery.equals(query)) return template;
+        QueryTemplate queryTemplate = TEMPLATE_CACHE.get(query);
+        if (queryTemplate == null) {
+            queryTemplate = new QueryTemplate(query);
+            TEMPLATE_CACHE.put(query, queryTemplate);
+        }
+        this.template = queryTemplate;
+        return queryTemplate;
+    }
+    
+    private static String getParameterValue(String parameterName, Map<String, String> parameters) throws BridgeError {
+        // If there were no parameters provided
+        if (parameters == null) {
+            throw new BridgeError("Unable to parse qualification, "+
+                "the '"+parameterName+"' parameter was referenced but no "+
+                "parameters were provided.");
+        }
+        String parameterValue = parameters.get(parameterName);
+        // If there is a reference to a parameter that was not passed
+        if (parameterValue == null) {
+            throw new BridgeError("Unable to parse qualification, "+
+                "the '"+parameterName+"' parameter was referenced but "+
+                "not provided.");
+        }
+        return parameterValue;
+    }
+    
+    
+    /*----------------------------------------------------------------------------------------------
+     * QUERY TEMPLATES
+     *--------------------------------------------------------------------------------------------*/
+    
+    /** How a parameter value is escaped when it is bound into a query. */
+    private enum Encoding { NONE, JSON, LUCENE }
+    
+    /**
+     * The parts of a bridge query that do not depend on parameter values: the query style and
+     * metadata, the json root path and the query text split on its parameter placeholders.
+     */
+    private static final class QueryTemplate {
+        
+        final String rawQuery;
+        final Map<String, Object> metadata;
+        final String queryType;
+        final String jsonRootPath;
+        final String responseFormat;
+        final boolean export;
+        // The metadata "params" by name, each value split on its parameter placeholders.
+        final Map<String, List<Segments>> params;
+        // The Lucene query, or the metadata "query" value when metadata is present.
+        final String query;
+        final Segments querySegments;
+        // Name of the parameter when the query is nothing but a single placeholder.
+        final String singleParameter;
+        // Kinetic DSL options.
+        final String queryPrefix;
+        final Segments queryPrefixSegments;
+        final String concateOperator;
+        final List<String> whitelistedFields;
+        
+        QueryTemplate(String rawQuery) throws BridgeError {
+            this.rawQuery = rawQuery;
+            // Change <%= parameter["asdf"] %> to <%= parameter['asdf'] %> so we can parse the bridge query JSON.
+            String query = PARAMETER_GROUP_MATCH.matcher(rawQuery).replaceAll("<%= parameter['$1'] %>");
+            this.metadata = parseMetadataJson(query);
+            
+            if (metadata != null) {
+                this.queryType = (String)metadata.get("type");
+                this.query = (String)metadata.get("query");
+                String metadataRoot = (String)metadata.get("jsonRootPath");
+                this.jsonRootPath = StringUtils.isNotBlank(metadataRoot) ? metadataRoot : null;
+                String metadataFormat = (String)metadata.get("responseFormat");
+                this.responseFormat = StringUtils.isNotBlank(metadataFormat) ? metadataFormat : null;
+                this.export = Boolean.TRUE.equals(metadata.get("export")) || "true".equals(metadata.get("export"));
+                this.params = parseParams(metadata.get("params"));
+            } else {
+                this.queryType = null;
+                this.query = query;
+                this.jsonRootPath = null;
+                this.responseFormat = null;
+                this.export = false;
+                this.params = Collections.emptyMap();
+            }
+            
+            if (metadata != null && StringUtils.equalsIgnoreCase(queryType, QUERY_STYLE_KINETIC)) {
+                this.queryPrefix = (String)metadata.get("queryPrefix");
+                this.concateOperator = (String)metadata.get("concateOperator");
+                this.whitelistedFields = (List<String>)metadata.get("whitelistFields");
+                this.queryPrefixSegments = StringUtils.isNotBlank(queryPrefix)
+                    ? Segments.split(PARAMETER, queryPrefix) : null;
+                this.querySegments = StringUtils.isNotBlank(this.query)
+                    ? Segments.split(PARAMETER, PARAMETER_JSON_SAFE.matcher(this.query)
+                        .replaceAll("<%= parameter[\"$1\"] %>"))
+                    : null;
+                this.singleParameter = null;
+            } else {
+                this.queryPrefix = null;
+                this.concateOperator = null;
+                this.whitelistedFields = null;
+                this.queryPrefixSegments = null;
+                this.querySegments = this.query == null ? null : Segments.split(PARAMETER_JSON_SAFE, this.query);
+                if (this.query != null && QUERY_SINGLE_PARAMETER.matcher(this.query).matches()) {
+                    Matcher matcher = PARAMETER_JSON_SAFE.matcher(this.query);
+                    matcher.find();
+                    this.singleParameter = matcher.group(1);
                 } else {
-                    // if not JSON, encode the parameter by escaping any Lucene query syntax reserved characters.
-                    value = encodeParameter(parameterName, parameterValue);
+                    this.singleParameter = null;
                 }
-                matcher.appendReplacement(resultBuffer, Matcher.quoteReplacement(value));
             }
-
-            matcher.appendTail(resultBuffer);
         }
         
-        return resultBuffer.toString();
-
-    }
-    
-    private Map<String, Object> parseMetadataJson(String query) throws BridgeError {
-        // Only parse once.
-        if (queryMetadata != null) return queryMetadata;
-        // Change <%= parameter["asdf"] %> to <%= parameter['asdf'] %> so we can parse the bridge query JSON.
-        query = query.replaceAll(PARAMETER_PATTERN_GROUP_MATCH, "<%= parameter['$1'] %>");
-        boolean metadataDetected = query.matches(QUERY_PATTERN_JSON);
-        if (metadataDetected) {
-            try {
-                this.queryMetadata = (Map<String, Object>)JSONValue.parseWithException(query);
-            } catch (ParseException exceptionDetails) {
-                throw new BridgeError(
-                    String.format("The bridge query (%s) appears to be a JSON Object " +
-                    "instead of a lucene query because it starts and ends with curly braces." +
-                    " The query failed however to parse successfully as JSON.", query),
-                    exceptionDetails
-                );
+        private static Map<String, List<Segments>> parseParams(Object metadataParams) throws BridgeError {
+            Map<String, List<Segments>> params = new LinkedHashMap<>();
+            if (metadataParams == null) {
+                return params;
+            }
+            if (metadataParams instanceof Map == false) {
+                throw new BridgeError("The query metadata 'params' key must be a JSON object of Solr parameter names and values.");
+            }
+            for (Map.Entry<String, Object> param : ((Map<String, Object>)metadataParams).entrySet()) {
+                if (RESERVED_PARAMS.contains(param.getKey())) {
+                    throw new BridgeError(String.format(
+                        "The query metadata 'params' can not set the %s parameter, the adapter sets it.", param.getKey()));
+                }
+                List<Object> values = param.getValue() instanceof List
+                    ? (List<Object>)param.getValue() : Collections.singletonList(param.getValue());
+                List<Segments> segments = new ArrayList<>(values.size());
+                for (Object value : values) {
+                    if (value instanceof String == false) {
+                        throw new BridgeError(String.format(
+                            "The query metadata '%s' param must be a string or a list of strings.", param.getKey()));
+                    }
+                    segments.add(Segments.split(PARAMETER_JSON_SAFE, (String)value));
+                }
+                params.put(param.getKey(), segments);
+            }
+            return params;
+        }
+        
+        private static Map<String, Object> parseMetadataJson(String query) throws BridgeError {
+            Map<String, Object> queryMetadata = null;
+            boolean metadataDetected = QUERY_JSON.matcher(query).matches();
+            if (metadataDetected) {
+                try {
+                    queryMetadata = (Map<String, Object>)JSONValue.parseWithException(query);
+                } catch (ParseException exceptionDetails) {
+                    throw new BridgeError(
+                        String.format("The bridge query (%s) appears to be a JSON Object " +
+                        "instead of a lucene query because it starts and ends with curly braces." +
+                        " The query failed however to parse successfully as JSON.", query),
+                        exceptionDetails
+                    );
+                }
             }
+            return queryMetadata;
         }
-        return queryMetadata;
+        
     }
     
-    private String parameterReplacement(boolean encodeParameters, String query, Map<String, String> parameters) throws BridgeError {
-        StringBuffer resultBuffer = new StringBuffer();
-        Pattern pattern = Pattern.compile(super.PARAMETER_PATTERN);
-        Matcher matcher = pattern.matcher(query);
-
-        while (matcher.find()) {
-            // Retrieve the necessary values
-            String parameterName = matcher.group(1);
-            // If there were no parameters provided
-            if (parameters == null) {
-                throw new BridgeError("Unable to parse qualification, "+
-                    "the '"+parameterName+"' parameter was referenced but no "+
-                    "parameters were provided.");
+    /** Query text pre-split into literal text and the parameter placeholders between it. */
+    private static final class Segments {
+        
+        // One more literal than there are parameters, literals[i] precedes parameters[i].
+        private final String[] literals;
+        private final String[] parameters;
+        
+        private Segments(String[] literals, String[] parameters) {
+            this.literals = literals;
+            this.parameters = parameters;
+        }
+        
+        static Segments split(Pattern placeholder, String text) {
+            List<String> literalList = new ArrayList<>();
+            List<String> parameterList = new ArrayList<>();
+            Matcher matcher = placeholder.matcher(text);
+            int position = 0;
+            while (matcher.find()) {
+                literalList.add(text.substring(position, matcher.start()));
+                parameterList.add(matcher.group(1));
+                position = matcher.end();
             }
-            String parameterValue = parameters.get(parameterName);
-            // If there is a reference to a parameter that was not passed
-            if (parameterValue == null) {
-                throw new BridgeError("Unable to parse qualification, "+
-                    "the '"+parameterName+"' parameter was referenced but "+
-                    "not provided.");
+            literalList.add(text.substring(position));
+            return new Segments(
+                literalList.toArray(new String[literalList.size()]),
+                parameterList.toArray(new String[parameterList.size()])
+            );
+        }
+        
+        String bind(SolrQualificationParser parser, Encoding encoding, Map<String, String> parameterValues) throws BridgeError {
+            if (parameters.length == 0) return literals[0];
+            StringBuilder result = parser.buffer;
+            result.setLength(0);
+            for (int i = 0; i < parameters.length; i++) {
+                result.append(literals[i]);
+                String parameterValue = getParameterValue(parameters[i], parameterValues);
+                if (encoding == Encoding.JSON) {
+                    QueryEscaper.appendJson(result, parameterValue);
+                } else if (encoding == Encoding.LUCENE) {
+                    appendEncoded(result, parameterValue);
+                } else {
+                    result.append(parameterValue);
+                }
             }
-            
-            String value = parameterValue;
-            if (encodeParameters) value = encodeParameter(parameterName, parameterValue);
-
-            matcher.appendReplacement(resultBuffer, Matcher.quoteReplacement(parameterValue));
+            result.append(literals[parameters.length]);
+            return result.toString();
         }
-
-        matcher.appendTail(resultBuffer);
-        return resultBuffer.toString();
+        
     }
     
 }
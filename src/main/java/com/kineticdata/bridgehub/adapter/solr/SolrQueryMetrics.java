@@ -0,0 +1,46 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+/**
+ * Records the metrics of one bridge method for one core. The methods are called on the hot path
+ * of every bridge call, from any thread, and should neither block nor allocate.
+ */
+public interface SolrQueryMetrics {
+
+    /**
+     * Records a completed bridge call, including calls answered from the result cache.
+     *
+     * @param totalNanos time from the bridge call to its result
+     * @param records number of records returned, 0 for a count
+     * @param failed whether the call ended with an error
+     */
+    void recordCall(long totalNanos, int records, boolean failed);
+
+    /** Records the time taken to parse the bridge query into Solr request parameters. */
+    void recordParse(long nanos);
+
+    /**
+     * Records the body of a request sent to Solr.
+     *
+     * @param bodyBytes size of the form encoded body
+     * @param bytesSent size of the body as sent, smaller than bodyBytes when it was compressed
+     */
+    void recordRequest(long bodyBytes, long bytesSent);
+
+    /**
+     * Records the response to a request sent to Solr.
+     *
+     * @param networkNanos time from sending the request to receiving the response status
+     * @param decodeNanos time from receiving the response status to having read, decoded and
+     *     mapped the whole body (the body is decoded while it is being received)
+     * @param bytesReceived size of the response body as received, compressed or not
+     * @param bytesDecoded size of the response body once decompressed
+     * @param status HTTP status of the response, 0 when no response was received
+     * @param failed whether the request ended with an error
+     */
+    void recordResponse(long networkNanos, long decodeNanos, long bytesReceived, long bytesDecoded, int status,
+        boolean failed);
+
+    /** Records the QTime Solr reported in the response header. */
+    void recordQTime(long millis);
+
+}
@@ -0,0 +1,45 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.Map;
+
+/** The JMX view of the metrics of one bridge method for one core. */
+public interface SolrQueryMetricsMXBean {
+
+    String getMethod();
+
+    String getCore();
+
+    long getCallCount();
+
+    long getFailedCallCount();
+
+    long getRecordsReturned();
+
+    long getRequestCount();
+
+    /** Size of the request bodies before compression. */
+    long getRequestBytes();
+
+    /** Size of the request bodies as sent. */
+    long getRequestBytesSent();
+
+    /** Size of the response bodies as received. */
+    long getBytesReceived();
+
+    /** Size of the response bodies once decompressed. */
+    long getBytesDecoded();
+
+    /** Number of failed Solr requests by HTTP status, 0 for requests without a response. */
+    Map<Integer,Long> getErrorsByStatus();
+
+    LatencyHistogram.Summary getTotalLatency();
+
+    LatencyHistogram.Summary getParseLatency();
+
+    LatencyHistogram.Summary getNetworkLatency();
+
+    LatencyHistogram.Summary getDecodeLatency();
+
+    LatencyHistogram.Summary getQTime();
+
+}
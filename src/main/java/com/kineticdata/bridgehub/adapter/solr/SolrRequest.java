@@ -0,0 +1,131 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * The request the adapter sends to Solr for a bridge call: the path below the Solr base url
+ * (core, request handler and url parameters) and the form encoded body parameters.
+ */
+class SolrRequest {
+
+    private final String core;
+    private final String path;
+    private final List<NameValuePair> parameters;
+    // The wt Solr is asked to answer in.
+    private final String responseFormat;
+    // Identifies the cursor chain and offset of a cursorMark page request, otherwise null.
+    private final String cursorChain;
+    private final int cursorOffset;
+    // Computed on first use, racing threads compute the same immutable string.
+    private String key;
+    // A hedge and the original request build their bodies on different threads.
+    private volatile long bodyLength = -1;
+    // Built once, a hedged or retried request sends the same compressed body again. Only ever
+    // published whole, a racing thread compresses a body of its own rather than seeing a
+    // partly written one.
+    private volatile byte[] compressedBody;
+
+    SolrRequest(String core, String path, List<NameValuePair> parameters) {
+        this(core, path, parameters, SolrAdapter.RESPONSE_FORMAT_JSON);
+    }
+
+    SolrRequest(String core, String path, List<NameValuePair> parameters, String responseFormat) {
+        this(core, path, parameters, responseFormat, null, 0);
+    }
+
+    SolrRequest(String core, String path, List<NameValuePair> parameters, String responseFormat,
+        String cursorChain, int cursorOffset)
+    {
+        this.core = core;
+        this.path = path;
+        this.parameters = parameters;
+        this.responseFormat = responseFormat;
+        this.cursorChain = cursorChain;
+        this.cursorOffset = cursorOffset;
+    }
+
+    /** The core (bridge structure) the request is sent to. */
+    String getCore() {
+        return core;
+    }
+
+    /** The path and url parameters of the request, relative to the Solr base url. */
+    String getPath() {
+        return path;
+    }
+
+    List<NameValuePair> getParameters() {
+        return parameters;
+    }
+
+    /** The response format (wt) Solr is asked to answer in. */
+    String getResponseFormat() {
+        return responseFormat;
+    }
+
+    /**
+     * Identifies the query a cursorMark page belongs to (everything but the cursor itself), null
+     * when the request does not use a cursor.
+     */
+    String getCursorChain() {
+        return cursorChain;
+    }
+
+    /** The bridge offset of the page requested with a cursor. */
+    int getCursorOffset() {
+        return cursorOffset;
+    }
+
+    String getUrl(String baseUrl) {
+        return baseUrl + path;
+    }
+
+    /**
+     * The form encoded body, gzip compressed when it is larger than the compression threshold
+     * (0 never compresses).
+     */
+    HttpEntity getBody(int compressionThreshold) throws IOException {
+        UrlEncodedFormEntity body = new UrlEncodedFormEntity(parameters);
+        long length = body.getContentLength();
+        bodyLength = length;
+        if (compressionThreshold <= 0 || length <= compressionThreshold) {
+            return body;
+        }
+        byte[] content = compressedBody;
+        if (content == null) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream((int)length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                body.writeTo(gzip);
+            }
+            content = compressed.toByteArray();
+            compressedBody = content;
+        }
+        ByteArrayEntity compressedEntity = new ByteArrayEntity(content);
+        compressedEntity.setContentType(body.getContentType());
+        compressedEntity.setContentEncoding("gzip");
+        return compressedEntity;
+    }
+
+    /** The size of the body before any compression, -1 until the body has been built. */
+    long getBodyLength() {
+        return bodyLength;
+    }
+
+    /** A normalized form of the whole request, identical requests have identical keys. */
+    String getKey() {
+        if (key == null) {
+            key = path + "\n" + URLEncodedUtils.format(parameters, StandardCharsets.UTF_8);
+        }
+        return key;
+    }
+
+}
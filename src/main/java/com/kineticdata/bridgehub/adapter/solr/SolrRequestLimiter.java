@@ -0,0 +1,117 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of Solr requests in flight without blocking the calling thread. A request
+ * asks for a permit and is sent once the returned future completes. Requests over the cap wait
+ * in arrival order and fail with a BridgeError if no permit frees up within the queue timeout.
+ */
+public class SolrRequestLimiter {
+
+    private final int maximum;
+    private final long queueTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    SolrRequestLimiter(int maximum, long queueTimeoutMillis, ScheduledExecutorService scheduler) {
+        this.maximum = maximum;
+        this.available = maximum;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.scheduler = scheduler;
+    }
+
+    /** Completes once a request may be sent, the caller must release the permit afterwards. */
+    CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (this) {
+            if (available > 0) {
+                available--;
+                permit.complete(null);
+                return permit;
+            }
+            waiters.add(permit);
+        }
+        queued.increment();
+        if (queueTimeoutMillis > 0) {
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+                if (permit.completeExceptionally(new BridgeError(String.format(
+                    "Timed out after %d ms waiting for one of the %d concurrent Solr requests to complete.",
+                    queueTimeoutMillis, maximum))))
+                {
+                    rejections.increment();
+                    synchronized (this) {
+                        waiters.remove(permit);
+                    }
+                }
+            }, queueTimeoutMillis, TimeUnit.MILLISECONDS);
+            permit.whenComplete((value, error) -> timeout.cancel(false));
+        }
+        return permit;
+    }
+
+    /**
+     * Takes a permit only when one is free right away, the caller must release it afterwards.
+     * Used for hedges, which are not worth waiting for.
+     */
+    synchronized boolean tryAcquire() {
+        if (available > 0) {
+            available--;
+            return true;
+        }
+        return false;
+    }
+
+    /** Hands the permit to the longest waiting request that has not timed out yet. */
+    void release() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                waiter = waiters.poll();
+                if (waiter == null) {
+                    available++;
+                    return;
+                }
+            }
+            if (waiter.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    /** The maximum number of requests in flight. */
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /** Number of requests currently in flight. */
+    public synchronized int getInFlightCount() {
+        return maximum - available;
+    }
+
+    /** Number of requests currently waiting for a permit. */
+    public synchronized int getQueueLength() {
+        return waiters.size();
+    }
+
+    /** Number of requests that had to wait for a permit. */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /** Number of requests that failed because they waited longer than the queue timeout. */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.json.simple.JSONValue;
+
+/**
+ * Streams the body of a Solr response from the non-blocking transport into a ResponseReader.
+ * The I/O reactor thread only copies received bytes into a bounded buffer, the reader runs on a
+ * decode thread and pulls from that buffer as an InputStream. Input is suspended while the buffer
+ * is full, so a slow reader throttles the connection rather than buffering the whole body.
+ *
+ * A gzip or deflate content encoding is decompressed as the reader pulls from the buffer, so the
+ * body is never held in memory in either form.
+ *
+ * The result future completes once the reader has consumed the whole body, or with a BridgeError
+ * when Solr answered with an error status or the exchange failed.
+ */
+class SolrResponseConsumer<T> extends AbstractAsyncResponseConsumer<Void> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ResponseReader<T> reader;
+    private final Executor decodeExecutor;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile int status;
+    private final long startedAt = System.nanoTime();
+    private volatile long receivedAt;
+    private volatile long bytesReceived;
+    private volatile long bytesDecoded;
+    private volatile String contentEncoding;
+    private volatile SharedInputBuffer buffer;
+    private volatile boolean received;
+
+    SolrResponseConsumer(ResponseReader<T> reader, Executor decodeExecutor) {
+        this.reader = reader;
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    /** The value produced by the reader. */
+    CompletableFuture<T> getReadResult() {
+        return result;
+    }
+
+    /** True once the status line of the response has been received. */
+    boolean isResponseReceived() {
+        return status != 0;
+    }
+
+    /** The HTTP status code of the response, 0 until it has been received. */
+    int getStatus() {
+        return status;
+    }
+
+    /** Completes the read result when the exchange fails before the reader is done. */
+    FutureCallback<Void> getCallback() {
+        return new FutureCallback<Void>() {
+            @Override
+            public void completed(Void value) {}
+
+            @Override
+            public void failed(Exception exception) {
+                result.completeExceptionally(toBridgeError(exception));
+            }
+
+            @Override
+            public void cancelled() {
+                result.completeExceptionally(new BridgeError("The Solr request was cancelled."));
+            }
+        };
+    }
+
+    /** Time from creating the consumer, right before the request is sent, to receiving the status. */
+    long getNetworkNanos() {
+        return (receivedAt == 0 ? System.nanoTime() : receivedAt) - startedAt;
+    }
+
+    /** Time since the response status was received, 0 if it was not. */
+    long getNanosSinceResponse() {
+        return receivedAt == 0 ? 0 : System.nanoTime() - receivedAt;
+    }
+
+    /** Number of body bytes received, before any content decoding. */
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /** Number of body bytes read by the reader, after any content decoding. */
+    long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.receivedAt = System.nanoTime();
+        this.status = response.getStatusLine().getStatusCode();
+        Header encoding = response.getFirstHeader("Content-Encoding");
+        this.contentEncoding = encoding == null ? null : encoding.getValue().trim().toLowerCase();
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+        SharedInputBuffer entityBuffer = new SharedInputBuffer(BUFFER_SIZE);
+        this.buffer = entityBuffer;
+        // Solr always answers in UTF-8 but an explicit charset on the response still wins.
+        Charset charset = (contentType != null && contentType.getCharset() != null)
+            ? contentType.getCharset() : StandardCharsets.UTF_8;
+        boolean binary = contentType != null
+            && ContentType.APPLICATION_OCTET_STREAM.getMimeType().equals(contentType.getMimeType());
+        try {
+            decodeExecutor.execute(() -> decode(entityBuffer, charset, binary));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new BridgeError("The Solr adapter has been shut down.", e));
+            entityBuffer.shutdown();
+        }
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        // Only the reactor thread writes the counter.
+        bytesReceived += buffer.consumeContent(decoder, ioctrl);
+    }
+
+    @Override
+    protected Void buildResult(HttpContext context) {
+        received = true;
+        if (buffer == null) {
+            result.completeExceptionally(new SolrResponseError(status, String.format(
+                "The Solr server returned a HTTP status code of %d without a response body.", status)));
+        }
+        return null;
+    }
+
+    @Override
+    protected void releaseResources() {
+        // A reader still working through a completely received body must be left to finish.
+        if (received == false && buffer != null) {
+            buffer.shutdown();
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void decode(SharedInputBuffer entityBuffer, Charset charset, boolean binary) {
+        // Closing the content stream consumes any remainder so the connection can be reused.
+        try (InputStream received = new ContentInputStream(entityBuffer);
+             InputStream content = new CountingInputStream(decompress(received)))
+        {
+            if (status >= 300 || status < 200) {
+                result.completeExceptionally(new SolrResponseError(status, String.format(
+                    "The Solr server returned a HTTP status code of %d, 200 was expected. Response body: %s",
+                    status, binary ? describeBinary(content) : SolrAdapter.readString(content, charset))));
+            } else {
+                result.complete(reader.read(content, charset));
+            }
+        } catch (ZipException e) {
+            result.completeExceptionally(new BridgeError(String.format(
+                "Unable to decode the %s compressed Solr response, its body is corrupt.", contentEncoding), e));
+        } catch (IOException e) {
+            result.completeExceptionally(toBridgeError(e));
+        } catch (BridgeError | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /** A javabin error body, such as the answer to a wt=javabin query, described as JSON. */
+    private static String describeBinary(InputStream content) {
+        try {
+            return JSONValue.toJSONString(JavaBinResponseDecoder.decode(content));
+        } catch (IOException | BridgeError | RuntimeException e) {
+            return "(unreadable javabin)";
+        }
+    }
+
+    private InputStream decompress(InputStream received) throws IOException {
+        if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+            return new GZIPInputStream(received, 8192);
+        } else if ("deflate".equals(contentEncoding)) {
+            // Handles both zlib wrapped and raw deflate data, servers send either.
+            return new DeflateInputStream(received);
+        }
+        return received;
+    }
+
+    private static BridgeError toBridgeError(Exception exception) {
+        if (exception instanceof ConnectTimeoutException) {
+            return new BridgeError("Timed out connecting to the Solr server.", exception);
+        } else if (exception instanceof SocketTimeoutException) {
+            return new BridgeError("Timed out waiting for the Solr server to respond.", exception);
+        } else if (exception instanceof TimeoutException) {
+            return new BridgeError("Timed out waiting for a pooled connection to the Solr server.", exception);
+        }
+        return new BridgeError("Unable to make a connection to the Solr server", exception);
+    }
+
+    /** Counts the bytes handed to the reader into bytesDecoded, only the decode thread writes it. */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) bytesDecoded++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) bytesDecoded += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            bytesDecoded += skipped;
+            return skipped;
+        }
+
+    }
+
+}
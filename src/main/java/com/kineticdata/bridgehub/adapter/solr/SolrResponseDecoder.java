@@ -0,0 +1,73 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Reads the parts of a Solr search response the adapter uses while it streams off the wire:
+ * <code>response.numFound</code>, <code>responseHeader.QTime</code>, the
+ * <code>nextCursorMark</code> of a cursor request, and each document of
+ * <code>response.docs</code>, which is handed to a listener as soon as it has been read.
+ *
+ * There is one decoder for each response format (wt) the adapter can ask Solr for. Whatever the
+ * format, documents are built from the types a JSON response parses to, so records look the same
+ * regardless of the format they were sent in.
+ */
+abstract class SolrResponseDecoder implements ResponseReader<SolrResponseDecoder> {
+
+    /** Receives each document of the response in order. */
+    interface DocumentListener {
+        void document(Map<String,Object> document);
+    }
+
+    private final DocumentListener listener;
+    private int documentCount;
+    protected Long numFound;
+    protected Long qTime;
+    protected String nextCursorMark;
+
+    protected SolrResponseDecoder(DocumentListener listener) {
+        this.listener = listener;
+    }
+
+    /** Returns a decoder for responses in the given format, a value of the wt parameter. */
+    static SolrResponseDecoder forFormat(String responseFormat, DocumentListener listener) {
+        if (SolrAdapter.RESPONSE_FORMAT_JAVABIN.equals(responseFormat)) {
+            return new JavaBinResponseDecoder(listener);
+        }
+        return new JsonResponseDecoder(listener);
+    }
+
+    @Override
+    public abstract SolrResponseDecoder read(InputStream content, Charset charset) throws IOException, BridgeError;
+
+    /** The value of response.numFound, or null if the response did not include one. */
+    Long getNumFound() {
+        return numFound;
+    }
+
+    /** The value of responseHeader.QTime, or null if the response did not include one. */
+    Long getQTime() {
+        return qTime;
+    }
+
+    /** The nextCursorMark of a cursor request, or null for other requests. */
+    String getNextCursorMark() {
+        return nextCursorMark;
+    }
+
+    /** The number of documents handed to the listener. */
+    int getDocumentCount() {
+        return documentCount;
+    }
+
+    /** Hands a document of response.docs to the listener. */
+    protected void document(Map<String,Object> document) {
+        documentCount++;
+        if (listener != null) listener.document(document);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+
+/** A BridgeError for a Solr response with an error status, such as a 400 for an invalid query. */
+public class SolrResponseError extends BridgeError {
+
+    private final int status;
+
+    SolrResponseError(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /** The HTTP status code of the response. */
+    public int getStatus() {
+        return status;
+    }
+
+}
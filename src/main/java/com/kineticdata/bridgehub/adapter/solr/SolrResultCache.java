@@ -0,0 +1,148 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of bridge results (Count, Record and RecordList objects) keyed by the normalized
+ * Solr request that produced them. Entries are evicted least recently used first once either the
+ * entry limit or the record limit is reached, expire after a fixed time to live and can be dropped
+ * for a whole core when its index changes.
+ *
+ * Each core has an invalidation generation. Callers read it before sending a request and hand it
+ * back when storing the result, so a response that was in flight while the core was invalidated
+ * is never cached.
+ */
+public class SolrResultCache {
+
+    private static final class Entry {
+        final String core;
+        final Object value;
+        final int weight;
+        final long expiresAt;
+
+        Entry(String core, Object value, int weight, long expiresAt) {
+            this.core = core;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maximumEntries;
+    private final long maximumWeight;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String,Long> generations = new HashMap<>();
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    SolrResultCache(int maximumEntries, long maximumWeight, long timeToLiveMillis) {
+        this.maximumEntries = maximumEntries;
+        this.maximumWeight = maximumWeight;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /** Returns the cached result for the key, or null if there is no live entry. */
+    Object get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                remove(key);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    synchronized long getGeneration(String core) {
+        Long generation = generations.get(core);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Stores a result unless the core was invalidated after the given generation was read or the
+     * result alone is heavier than the whole cache.
+     */
+    synchronized void put(String core, String key, Object value, int valueWeight, long generation) {
+        if (generation != getGeneration(core) || valueWeight > maximumWeight) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(core, value, valueWeight, System.currentTimeMillis() + timeToLiveMillis));
+        weight += valueWeight;
+        Iterator<Map.Entry<String,Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maximumEntries || weight > maximumWeight) && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /** Drops every entry of the core, including results currently being fetched. */
+    synchronized void invalidate(String core) {
+        generations.put(core, getGeneration(core) + 1);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.core.equals(core)) {
+                weight -= entry.weight;
+                iterator.remove();
+            }
+        }
+        invalidations.increment();
+    }
+
+    /** The cores that currently have cached entries. */
+    synchronized Set<String> getCores() {
+        Set<String> cores = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            cores.add(entry.core);
+        }
+        return cores;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+    }
+
+}
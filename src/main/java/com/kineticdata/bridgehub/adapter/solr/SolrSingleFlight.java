@@ -0,0 +1,78 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical concurrent bridge calls. The first call for a key runs the query, calls for
+ * the same key that arrive while it is in flight wait for it and get the same result (or the same
+ * error) instead of sending their own request to Solr. Nothing is kept once a call completes,
+ * results are only reused beyond that by the result cache.
+ */
+public class SolrSingleFlight {
+
+    private final ConcurrentHashMap<String,CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder suppressions = new LongAdder();
+
+    /** Runs the query unless an identical one is in flight, in which case its result is shared. */
+    <T> CompletableFuture<T> execute(String key, QueryExecution<T> execution) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            suppressions.increment();
+            return share(inFlight);
+        }
+        executions.increment();
+        CompletableFuture<T> result;
+        try {
+            result = execution.execute();
+        } catch (BridgeError | RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, error) -> {
+            calls.remove(key, call);
+            if (error instanceof CompletionException && error.getCause() != null) {
+                call.completeExceptionally(error.getCause());
+            } else if (error != null) {
+                call.completeExceptionally(error);
+            } else {
+                call.complete(value);
+            }
+        });
+        return share(call);
+    }
+
+    /** Hands each caller its own dependent future so one caller can not complete it for all. */
+    private static <T> CompletableFuture<T> share(CompletableFuture<Object> call) {
+        return call.thenApply(value -> (T)value);
+    }
+
+    /** Number of calls currently in flight. */
+    public int getInFlightCount() {
+        return calls.size();
+    }
+
+    /** Number of calls that sent their own request to Solr. */
+    public long getExecutionCount() {
+        return executions.sum();
+    }
+
+    /** Number of calls that shared the result of an identical call instead of sending a request. */
+    public long getSuppressedCount() {
+        return suppressions.sum();
+    }
+
+    /** Fraction of calls that were answered by an identical in flight call, 0 before any call. */
+    public double getSuppressionRate() {
+        long suppressed = suppressions.sum();
+        long total = suppressed + executions.sum();
+        return total == 0 ? 0 : (double)suppressed / total;
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a response the way Solr's JavaBinCodec does for <code>wt=javabin</code>, so the stub can
+ * answer in javabin. Maps are written as named lists, a map with numFound and docs as a document
+ * list whose documents are written as Solr documents, and field names as extern strings.
+ */
+final class JavaBinWriter {
+
+    private final DataOutputStream output;
+    private final Map<String,Integer> externStrings = new HashMap<>();
+
+    private JavaBinWriter(DataOutputStream output) {
+        this.output = output;
+    }
+
+    /** Encodes a response, a tree of maps, lists, strings, numbers and booleans. */
+    static byte[] write(Object response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            JavaBinWriter writer = new JavaBinWriter(new DataOutputStream(bytes));
+            writer.output.write(2);
+            writer.writeValue(response);
+            writer.output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            output.write(0);
+        } else if (value instanceof Boolean) {
+            output.write((Boolean)value ? 1 : 2);
+        } else if (value instanceof String) {
+            writeString((String)value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            int number = ((Number)value).intValue();
+            if (number >= 0) {
+                writeTagAndSmallValue(2 << 5, number);
+            } else {
+                output.write(6);
+                output.writeInt(number);
+            }
+        } else if (value instanceof Long) {
+            long number = (Long)value;
+            if (number >= 0) {
+                writeTagAndSmallValue(3 << 5, number);
+            } else {
+                output.write(7);
+                output.writeLong(number);
+            }
+        } else if (value instanceof Float) {
+            output.write(8);
+            output.writeFloat((Float)value);
+        } else if (value instanceof Number) {
+            output.write(5);
+            output.writeDouble(((Number)value).doubleValue());
+        } else if (value instanceof Date) {
+            output.write(9);
+            output.writeLong(((Date)value).getTime());
+        } else if (value instanceof Map && ((Map)value).containsKey("docs") && ((Map)value).containsKey("numFound")) {
+            writeDocumentList((Map<String,Object>)value);
+        } else if (value instanceof Map) {
+            Map<String,Object> map = (Map<String,Object>)value;
+            writeTagAndSize(5 << 5, map.size());
+            for (Map.Entry<String,Object> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>)value;
+            writeTagAndSize(4 << 5, list.size());
+            for (Object element : list) writeValue(element);
+        } else {
+            throw new IllegalArgumentException("Can not write " + value.getClass() + " as javabin.");
+        }
+    }
+
+    private void writeDocumentList(Map<String,Object> documentList) throws IOException {
+        output.write(12);
+        List<Map<String,Object>> documents = (List<Map<String,Object>>)documentList.get("docs");
+        writeTagAndSize(4 << 5, 4);
+        writeValue(((Number)documentList.get("numFound")).longValue());
+        writeValue(((Number)documentList.getOrDefault("start", 0)).longValue());
+        writeValue(documentList.get("maxScore") == null ? null : ((Number)documentList.get("maxScore")).floatValue());
+        writeValue(documentList.getOrDefault("numFoundExact", Boolean.TRUE));
+        writeTagAndSize(4 << 5, documents.size());
+        for (Map<String,Object> document : documents) {
+            writeDocument(document);
+        }
+    }
+
+    private void writeDocument(Map<String,Object> document) throws IOException {
+        output.write(11);
+        writeTagAndSize(5 << 5, document.size());
+        for (Map.Entry<String,Object> field : document.entrySet()) {
+            writeExternString(field.getKey());
+            writeValue(field.getValue());
+        }
+    }
+
+    private void writeExternString(String value) throws IOException {
+        Integer index = externStrings.get(value);
+        if (index != null) {
+            writeTagAndSize(7 << 5, index);
+        } else {
+            writeTagAndSize(7 << 5, 0);
+            writeString(value);
+            externStrings.put(value, externStrings.size() + 1);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeTagAndSize(1 << 5, bytes.length);
+        output.write(bytes);
+    }
+
+    private void writeTagAndSize(int tag, int size) throws IOException {
+        if (size < 0x1F) {
+            output.write(tag | size);
+        } else {
+            output.write(tag | 0x1F);
+            writeVLong(size - 0x1F);
+        }
+    }
+
+    private void writeTagAndSmallValue(int tag, long value) throws IOException {
+        if ((value & ~0x0FL) == 0) {
+            output.write(tag | (int)value);
+        } else {
+            output.write(tag | 0x10 | (int)(value & 0x0F));
+            writeVLong(value >>> 4);
+        }
+    }
+
+    private void writeVLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int)value);
+    }
+
+}
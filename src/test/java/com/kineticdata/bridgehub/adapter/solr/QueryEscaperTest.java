@@ -0,0 +1,147 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the single pass escaping against the regular expression replacements and json-simple
+ * escaping it replaced, on hand picked values and on a large number of random ones.
+ */
+public class QueryEscaperTest {
+
+    private static final List<String> VALUES = Arrays.asList(
+        "",
+        "ipod",
+        "Samsung SpinPoint P120 SP2514N - hard drive - 250 GB - ATA-133",
+        "+-=&&||><!(){}[]^\"~*?:\\/ $",
+        "a|b&c|||d&&&e||||f",
+        "AND", "OR", "NOT", "AND OR NOT", "ANDOR", "NOTE", "ORACLE", "BAND", "_AND_", "1AND2",
+        "ipod AND video OR mp3 NOT (black && white) || silver",
+        "-AND-", "(OR)", "\"NOT\"", "AND\\", "\\AND", "&&AND||OR",
+        "\u00e9AND", "AND\u00e9", "a\u0301AND", "AND\u0301", "\u0301AND", "\u00a0AND\u00a0",
+        "tab\tnew\nline\rvertical\u000Bform\f",
+        "\u8fd9\u662f\u4e00\u4e2a\u529f\u80fd (translated)",
+        "emoji \ud83d\ude00 AND \ud83d\ude00",
+        "control \u0000\u0001\u001F\u007F\u0080\u009F",
+        "general punctuation \u2000\u2013\u2014\u2028\u2029\u20ac\u20ff\u2100",
+        "json \"quoted\" back\\slash /path/ \b\f\n\r\t"
+    );
+
+    private static final String[] FRAGMENTS = {
+        "a", "Z", "7", "_", "AND", "OR", "NOT", "AN", "N", "O", "D", "R",
+        "|", "||", "&", "&&", "\\", "\"", "/", "*", "+", "-", "=", "~", ">", "<", "?", "^", "$",
+        "{", "}", "(", ")", ":", "!", "[", "]", " ", "\t", "\n", "\r", "\u000B", "\f", "\b",
+        "\u00a0", "\u00e9", "\u0301", "\u2028", "\u2014", "\u20ff", "\u0000", "\u007F", "\u0085",
+        "\u8fd9", "\ud83d\ude00", "\ud83d"
+    };
+
+    @Test
+    public void testLuceneEscapingMatchesRegularExpressions() {
+        SolrQualificationParser parser = new SolrQualificationParser();
+        for (String value : VALUES) {
+            assertEquals(value, legacyEncodeParameter(value), parser.encodeParameter("field", value));
+        }
+    }
+
+    @Test
+    public void testLuceneEscapingMatchesRegularExpressionsOnRandomValues() {
+        SolrQualificationParser parser = new SolrQualificationParser();
+        Random random = new Random(20240315L);
+        for (int i = 0; i < 100000; i++) {
+            String value = randomValue(random);
+            assertEquals(value, legacyEncodeParameter(value), parser.encodeParameter("field", value));
+        }
+    }
+
+    @Test
+    public void testJsonEscapingMatchesJsonSimple() {
+        for (String value : VALUES) {
+            assertEquals(value, JSONValue.escape(value), escapeJson(value));
+        }
+        Random random = new Random(20240316L);
+        for (int i = 0; i < 100000; i++) {
+            String value = randomValue(random);
+            assertEquals(value, JSONValue.escape(value), escapeJson(value));
+        }
+        for (char ch = 0; ch < Character.MAX_VALUE; ch++) {
+            String value = String.valueOf(ch);
+            assertEquals(Integer.toHexString(ch), JSONValue.escape(value), escapeJson(value));
+        }
+    }
+
+    @Test
+    public void testBoundQueriesMatchEncodedParameters() throws Exception {
+        SolrQualificationParser parser = new SolrQualificationParser();
+        for (String value : VALUES) {
+            if (value.isEmpty()) continue;
+            assertEquals("name:" + legacyEncodeParameter(value),
+                parser.parse("name:<%= parameter[\"Name\"] %>", Collections.singletonMap("Name", value)));
+            assertEquals("{\"query\": \"name:" + JSONValue.escape(value) + "\"}",
+                parser.parse("{\"type\": \"Solr DSL\", \"query\": \"{\\\"query\\\": \\\"name:<%= parameter[\"Name\"] %>\\\"}\"}",
+                    Collections.singletonMap("Name", value)));
+        }
+    }
+
+    @Test
+    public void testReadFieldValue() {
+        assertEquals("IW-02", QueryEscaper.readFieldValue("id:IW\\-02", "id"));
+        assertEquals("IW-02", QueryEscaper.readFieldValue(" id:\"IW-02\" ", "id"));
+        assertEquals("a \"b\" c", QueryEscaper.readFieldValue("id:\"a \\\"b\\\" c\"", "id"));
+        assertEquals("a,b", QueryEscaper.readFieldValue("id:a,b", "id"));
+        assertEquals("a&b|c&&", QueryEscaper.readFieldValue("id:a&b|c\\&&", "id"));
+        for (String query : Arrays.asList("id:", "id:\"\"", "ids:a", "name:a", "id:a*", "id:a b", "id:[a TO b]",
+            "id:a^2", "id:a~", "id:a||b", "id:a&&b", "id:a\\", "id:\"a", "id:\"a\" OR id:b", "+id:a", "id:(a)",
+            "id:a\u3000b", "{!term f=id}a"))
+        {
+            assertNull(query, QueryEscaper.readFieldValue(query, "id"));
+        }
+    }
+
+    @Test
+    public void testReadFieldValueOfEncodedParameters() {
+        SolrQualificationParser parser = new SolrQualificationParser();
+        for (String value : VALUES) {
+            // AND, OR and NOT are escaped with two backslashes, so Solr matches a backslash too,
+            // and a third | or & forms an operator with the next one.
+            if (value.isEmpty() || value.matches("(?s).*(AND|OR|NOT|[|]{3}|&{3}).*")) continue;
+            assertEquals(value, QueryEscaper.readFieldValue("id:" + parser.encodeParameter("id", value), "id"));
+        }
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder escaped = new StringBuilder();
+        QueryEscaper.appendJson(escaped, value);
+        return escaped.toString();
+    }
+
+    private static String randomValue(Random random) {
+        StringBuilder value = new StringBuilder();
+        int fragments = random.nextInt(12);
+        for (int i = 0; i < fragments; i++) {
+            value.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return value.toString();
+    }
+
+    /** The chain of replacements encodeParameter made before the single pass escaping. */
+    private static String legacyEncodeParameter(String value) {
+        String result = null;
+        String regexReservedCharactersPattern = "(\\*|\\+|\\-|\\=|\\~|\\>|\\<|\\\"|\\?|\\^|\\$|\\{|\\}|\\(|\\)|\\:|\\!|\\/|\\[|\\]|\\\\|\\s)";
+        if (value != null && value.isEmpty() == false) {
+            result = value.replaceAll(regexReservedCharactersPattern, Matcher.quoteReplacement("\\") + "$1")
+                .replaceAll("\\|\\|", "\\\\||")
+                .replaceAll("\\&\\&", "\\\\&&")
+                .replaceAll("\\b+AND\\b+", Matcher.quoteReplacement("\\\\AND"))
+                .replaceAll("\\b+OR\\b+", Matcher.quoteReplacement("\\\\OR"))
+                .replaceAll("\\b+NOT\\b+", Matcher.quoteReplacement("\\\\NOT"));
+        }
+        return result;
+    }
+
+}
@@ -4,18 +4,55 @@ import com.kineticdata.bridgehub.adapter.BridgeError;
 import com.kineticdata.bridgehub.adapter.BridgeRequest;
 import com.kineticdata.bridgehub.adapter.Count;
 import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 public class SolrAdapterTest {
     
+    // Runs against a stub answering like the techproducts example unless a Solr URL is given:
     //solr start -e techproducts
-    private final String apiUrl = "http://localhost:8983/solr";
+    //mvn test -Dsolr.url=http://localhost:8983/solr
+    private static SolrStubServer stub;
+    private static String apiUrl;
     private final String structure = "techproducts";
     
+    @BeforeClass
+    public static void startSolr() {
+        apiUrl = System.getProperty("solr.url");
+        if (apiUrl == null || apiUrl.isEmpty()) {
+            stub = SolrStubServer.techproducts().start();
+            apiUrl = stub.getUrl();
+        }
+    }
+    
+    @AfterClass
+    public static void stopSolr() {
+        if (stub != null) {
+            stub.close();
+            stub = null;
+        }
+    }
+    
     @Test
     public void testCountResults() throws Exception {
         Integer expectedCount = 3;
@@ -241,4 +278,1217 @@ public class SolrAdapterTest {
         
     }
     
+    @Test
+    public void testBulkheads() throws Exception {
+        // The stub is slowed down so that the searches overlap.
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Core Concurrency Limit", "10, techproducts=1");
+        configuration.put("Core Queue Depth", "1");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        stub.setLatency(SolrStubServer.Distribution.fixed(300));
+        try {
+            List<CompletableFuture<RecordList>> searches = new ArrayList<CompletableFuture<RecordList>>();
+            for (String query : Arrays.asList("name:ipod", "name:GB18030", "*:*")) {
+                BridgeRequest request = countRequest(query);
+                request.setFields(Arrays.asList("id"));
+                searches.add(adapter.searchAsync(request));
+            }
+            SolrBulkhead bulkhead = adapter.getBulkheads().get(structure);
+            assertEquals(1, bulkhead.getLimit());
+            assertEquals(1, bulkhead.getActiveCount());
+            assertEquals(1, bulkhead.getQueueLength());
+            // The bulkhead is published over JMX with the rest of the metrics.
+            assertSame(bulkhead, ((JmxMetricsRegistry)adapter.getMetricsRegistry()).getBulkheads().get(structure));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(new ObjectName(String.format(
+                "com.kineticdata.bridgehub.adapter.solr:type=SolrBulkhead,core=%s,*", ObjectName.quote(structure))), null);
+            assertFalse(names.isEmpty());
+            ObjectName name = names.iterator().next();
+            assertEquals(1, server.getAttribute(name, "Limit"));
+            assertEquals(1, server.getAttribute(name, "QueueLength"));
+            
+            // The third search finds the core saturated and fails right away.
+            assertTrue(searches.get(2).isCompletedExceptionally());
+            try {
+                searches.get(2).join();
+                fail("The search should have been rejected.");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof BridgeError);
+                assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("saturated"));
+            }
+            assertEquals(3, searches.get(0).get(10, TimeUnit.SECONDS).getRecords().size());
+            assertEquals(1, searches.get(1).get(10, TimeUnit.SECONDS).getRecords().size());
+            assertEquals(1, bulkhead.getRejectionCount());
+            assertEquals(0, bulkhead.getActiveCount());
+            
+            adapter.destroy();
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        } finally {
+            stub.setLatency(null);
+        }
+    }
+    
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Circuit Breaker Failure Threshold", "2");
+        configuration.put("Circuit Breaker Open Duration (Seconds)", "1");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        SolrCircuitBreaker breaker = adapter.getCircuitBreaker();
+        
+        stub.setErrors(1.0, 503);
+        try {
+            for (String query : Arrays.asList("name:ipod", "name:GB18030")) {
+                try {
+                    adapter.count(countRequest(query));
+                    fail("The count should have failed.");
+                } catch (BridgeError e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("503"));
+                }
+            }
+            assertEquals(SolrCircuitBreaker.State.OPEN, breaker.getStates().get(structure));
+            assertEquals(1, breaker.getTripCount());
+            
+            // The open circuit fails the next count without sending it.
+            long selects = stub.getRequestCount("select");
+            try {
+                adapter.count(countRequest("*:*"));
+                fail("The count should have failed fast.");
+            } catch (BridgeError e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("failing fast"));
+            }
+            assertEquals(selects, stub.getRequestCount("select"));
+            assertEquals(1, breaker.getRejectionCount());
+        } finally {
+            stub.setErrors(0);
+        }
+        
+        // After the open duration a single probe is let through while the circuit is half open.
+        Thread.sleep(1100);
+        stub.setLatency(SolrStubServer.Distribution.fixed(300));
+        try {
+            CompletableFuture<Count> probe = adapter.countAsync(countRequest("name:ipod"));
+            Thread.sleep(100);
+            assertEquals(SolrCircuitBreaker.State.HALF_OPEN, breaker.getStates().get(structure));
+            try {
+                adapter.count(countRequest("*:*"));
+                fail("The count should have failed fast while the probe is in flight.");
+            } catch (BridgeError e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("failing fast"));
+            }
+            
+            // The successful probe closes the circuit.
+            assertEquals(Integer.valueOf(3), probe.get(10, TimeUnit.SECONDS).getValue());
+            assertEquals(SolrCircuitBreaker.State.CLOSED, breaker.getStates().get(structure));
+            assertNotNull(adapter.count(countRequest("*:*")).getValue());
+            assertEquals(1, breaker.getTripCount());
+        } finally {
+            stub.setLatency(null);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSingleFlight() throws Exception {
+        // The stub is slowed down so that the searches overlap.
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        stub.setLatency(SolrStubServer.Distribution.fixed(300));
+        try {
+            long selects = stub.getRequestCount("select");
+            List<CompletableFuture<RecordList>> searches = new ArrayList<CompletableFuture<RecordList>>();
+            for (int i = 0; i < 5; i++) {
+                BridgeRequest request = countRequest("name:ipod");
+                request.setFields(Arrays.asList("id", "name"));
+                searches.add(adapter.searchAsync(request));
+            }
+            for (CompletableFuture<RecordList> search : searches) {
+                assertEquals(3, search.get(10, TimeUnit.SECONDS).getRecords().size());
+            }
+            // Every search shared the request of the first one.
+            assertEquals(selects + 1, stub.getRequestCount("select"));
+            assertEquals(4, adapter.getSingleFlight().getSuppressedCount());
+            assertEquals(0, adapter.getSingleFlight().getInFlightCount());
+            
+            // A different field list is a different call.
+            BridgeRequest request = countRequest("name:ipod");
+            request.setFields(Arrays.asList("id"));
+            CompletableFuture<RecordList> other = adapter.searchAsync(request);
+            assertEquals(3, other.get(10, TimeUnit.SECONDS).getRecords().size());
+            assertEquals(selects + 2, stub.getRequestCount("select"));
+        } finally {
+            stub.setLatency(null);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testResultCache() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Result Cache Size", "100");
+        configuration.put("Result Cache Index Version Poll (Seconds)", "1");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        SolrResultCache cache = adapter.getResultCache();
+        
+        BridgeRequest request = countRequest("name:ipod");
+        request.setFields(Arrays.asList("id", "name"));
+        long selects = stub.getRequestCount("select");
+        RecordList first = adapter.search(request);
+        RecordList cached = adapter.search(request);
+        // The second search is answered from the cache without asking Solr.
+        assertEquals(selects + 1, stub.getRequestCount("select"));
+        assertEquals(1, cache.getHitCount());
+        // Every caller gets records of its own, changing them does not change the cached ones.
+        assertNotSame(first, cached);
+        assertEquals(first.getRecords().size(), cached.getRecords().size());
+        for (int i = 0; i < first.getRecords().size(); i++) {
+            assertNotSame(first.getRecords().get(i), cached.getRecords().get(i));
+            assertEquals(first.getRecords().get(i).getRecord(), cached.getRecords().get(i).getRecord());
+        }
+        Object name = first.getRecords().get(0).getValue("name");
+        first.getRecords().get(0).getRecord().put("name", "changed");
+        cached.getRecords().clear();
+        RecordList again = adapter.search(request);
+        assertEquals(first.getRecords().size(), again.getRecords().size());
+        assertEquals(name, again.getRecords().get(0).getValue("name"));
+        
+        long statusReads = stub.getRequestCount("luke");
+        try {
+            // Once the index version of the core has been read, a commit that changes it drops the
+            // cached results of the core.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stub.getRequestCount("luke") == statusReads && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            stub.setIndexVersion(structure, 114);
+            while (cache.getInvalidationCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, cache.getInvalidationCount());
+            
+            RecordList refreshed = adapter.search(request);
+            assertEquals(selects + 2, stub.getRequestCount("select"));
+            assertEquals(first.getRecords().size(), refreshed.getRecords().size());
+        } finally {
+            stub.setIndexVersion(structure, 113);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testResultCache_solrCloud() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Result Cache Size", "100");
+        configuration.put("Result Cache Index Version Poll (Seconds)", "1");
+        
+        // The collection is served by shard cores that are not named after it.
+        stub.addCollection(structure, structure + "_shard1_replica_n1", structure + "_shard2_replica_n2");
+        try {
+            SolrAdapter adapter = new SolrAdapter();
+            adapter.setProperties(configuration);
+            adapter.initialize();
+            SolrResultCache cache = adapter.getResultCache();
+            
+            BridgeRequest request = countRequest("name:ipod");
+            long selects = stub.getRequestCount("select");
+            adapter.search(request);
+            adapter.search(request);
+            assertEquals(selects + 1, stub.getRequestCount("select"));
+            
+            // A commit to the second shard drops the cached results of the collection once the
+            // versions of both shards have been read.
+            long lukeReads = stub.getRequestCount("luke");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stub.getRequestCount("luke") < lukeReads + 2 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            stub.setIndexVersion(structure + "_shard2_replica_n2", 2);
+            while (cache.getInvalidationCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, cache.getInvalidationCount());
+            
+            adapter.search(request);
+            assertEquals(selects + 2, stub.getRequestCount("select"));
+            adapter.destroy();
+        } finally {
+            stub.removeCollection(structure);
+        }
+    }
+    
+    @Test
+    public void testResultCache_slowIndexVersionPoll() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Result Cache Size", "100");
+        configuration.put("Result Cache Index Version Poll (Seconds)", "1");
+        configuration.put("Hedge Delay (Milliseconds)", "20");
+        configuration.put("Hedge Budget (Percent)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        adapter.search(countRequest("name:ipod"));
+        
+        // While the index version poll waits on a slow cluster status, the hedge timers that share
+        // the scheduler still fire.
+        stub.setAdminLatency(SolrStubServer.Distribution.fixed(3000));
+        long statusReads = stub.getRequestCount("collections");
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stub.getRequestCount("collections") == statusReads && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(stub.getRequestCount("collections") > statusReads);
+            stub.setLatency(SolrStubServer.Distribution.fixed(200));
+            long hedges = adapter.getHedger().getHedgeCount();
+            long start = System.nanoTime();
+            adapter.search(countRequest("name:GB18030"));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            assertEquals(hedges + 1, adapter.getHedger().getHedgeCount());
+        } finally {
+            stub.setLatency(null);
+            stub.setAdminLatency(null);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSlowLiveNodeDiscovery() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Discover Live Nodes", "true");
+        configuration.put("Node Probe Interval (Seconds)", "1");
+        configuration.put("Hedge Delay (Milliseconds)", "20");
+        configuration.put("Hedge Budget (Percent)", "100");
+        
+        // The stub is not a SolrCloud node, so the configured node is kept.
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        assertEquals(1, adapter.getNodePool().getNodes().size());
+        
+        // While the discovery waits on a slow cluster status, the hedge timers that share the
+        // scheduler still fire.
+        stub.setAdminLatency(SolrStubServer.Distribution.fixed(3000));
+        long statusReads = stub.getRequestCount("collections");
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stub.getRequestCount("collections") == statusReads && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(stub.getRequestCount("collections") > statusReads);
+            stub.setLatency(SolrStubServer.Distribution.fixed(200));
+            long hedges = adapter.getHedger().getHedgeCount();
+            long start = System.nanoTime();
+            adapter.search(countRequest("name:GB18030"));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            assertEquals(hedges + 1, adapter.getHedger().getHedgeCount());
+        } finally {
+            stub.setLatency(null);
+            stub.setAdminLatency(null);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testHedgeSlots() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Hedge Delay (Milliseconds)", "20");
+        configuration.put("Hedge Budget (Percent)", "100");
+        
+        // A hedge is not sent without a free request slot, or a free slot of its core.
+        stub.setLatency(SolrStubServer.Distribution.fixed(150));
+        try {
+            for (String limit : Arrays.asList("Max Concurrent Requests", "Core Concurrency Limit")) {
+                Map<String,String> limited = new HashMap<String,String>(configuration);
+                limited.put(limit, "1");
+                SolrAdapter adapter = new SolrAdapter();
+                adapter.setProperties(limited);
+                adapter.initialize();
+                long selects = stub.getRequestCount("select");
+                assertEquals(Integer.valueOf(3), adapter.count(countRequest("name:ipod")).getValue());
+                assertEquals(selects + 1, stub.getRequestCount("select"));
+                assertEquals(0, adapter.getHedger().getHedgeCount());
+                assertEquals(1, adapter.getHedger().getSlotDenialCount());
+                adapter.destroy();
+            }
+            
+            configuration.put("Max Concurrent Requests", "2");
+            SolrAdapter adapter = new SolrAdapter();
+            adapter.setProperties(configuration);
+            adapter.initialize();
+            CompletableFuture<Count> count = adapter.countAsync(countRequest("name:ipod"));
+            Thread.sleep(80);
+            assertEquals(1, adapter.getHedger().getHedgeCount());
+            assertEquals(2, adapter.getRequestLimiter().getInFlightCount());
+            assertEquals(Integer.valueOf(3), count.get(10, TimeUnit.SECONDS).getValue());
+            // The slot of the losing request is released as well.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (adapter.getRequestLimiter().getInFlightCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, adapter.getRequestLimiter().getInFlightCount());
+            adapter.destroy();
+        } finally {
+            stub.setLatency(null);
+        }
+    }
+    
+    @Test
+    public void testHedgeCircuitBreaker() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Circuit Breaker Failure Threshold", "1");
+        configuration.put("Hedge Delay (Milliseconds)", "20");
+        configuration.put("Hedge Budget (Percent)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        SolrCircuitBreaker breaker = adapter.getCircuitBreaker();
+        
+        // Whichever of the request and its hedge arrives first fails while the other is still in
+        // flight, the other one then wins, so the core never counted as failing.
+        AtomicInteger requests = new AtomicInteger();
+        stub.setLatency(random -> requests.getAndIncrement() == 0 ? 100 : 300);
+        stub.setErrors(0, 500).failNextRequests(1);
+        try {
+            assertEquals(Integer.valueOf(3), adapter.count(countRequest("name:ipod")).getValue());
+            assertEquals(1, adapter.getHedger().getHedgeCount());
+            assertEquals(0, breaker.getTripCount());
+            assertEquals(SolrCircuitBreaker.State.CLOSED, breaker.getStates().get(structure));
+        } finally {
+            stub.setLatency(null);
+            stub.setErrors(0);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSingleRequestSlot() throws Exception {
+        // The stub is slowed down so that the queries and their hedges overlap.
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Max Concurrent Requests", "1");
+        configuration.put("Hedge Delay (Milliseconds)", "10");
+        configuration.put("Hedge Budget (Percent)", "100");
+        configuration.put("Retrieve Batch Size", "4");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        // One decode thread serves every response, hedges included.
+        stub.setLatency(SolrStubServer.Distribution.uniform(20, 60));
+        try {
+            List<CompletableFuture<?>> calls = new ArrayList<CompletableFuture<?>>();
+            for (String query : Arrays.asList("name:ipod", "name:GB18030", "*:*")) {
+                BridgeRequest request = countRequest(query);
+                request.setFields(Arrays.asList("id", "name"));
+                calls.add(adapter.searchAsync(request));
+            }
+            BridgeRequest export = countRequest("{\"type\": \"Solr DSL\", \"export\": true, \"query\": \"name:ipod\"}");
+            export.setFields(Arrays.asList("id", "price"));
+            calls.add(adapter.searchAsync(export));
+            for (String id : Arrays.asList("IW-02", "F8V7067-APL-KIT", "MA147LL/A")) {
+                calls.add(adapter.retrieveAsync(retrieveRequest(id)));
+            }
+            for (CompletableFuture<?> call : calls) {
+                assertNotNull(call.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(3, ((RecordList)calls.get(3).get()).getRecords().size());
+        } finally {
+            stub.setLatency(null);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testQueryPlans() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "1000");
+        bridgeMetadata.put("offset", "0");
+        bridgeMetadata.put("order", "<%=field[\"price\"]%>:DESC");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("name:ipod");
+        request.setFields(Arrays.asList("id", "name"));
+        
+        // A count only reads numFound and the QTime of the header.
+        assertEquals(String.format("%s/%s/select?wt=json&rows=0", apiUrl, structure), adapter.buildUrl("count", request));
+        assertEquals("q=name%3Aipod&echoParams=none",
+            EntityUtils.toString(adapter.buildRequestBody("count", request, new SolrQualificationParser())));
+        
+        // A retrieve only needs to know whether more than one document matched.
+        assertEquals(String.format("%s/%s/select?wt=json&rows=2", apiUrl, structure), adapter.buildUrl("retrieve", request));
+        assertEquals("q=name%3Aipod&fl=id%2Cname&sort=price+desc&echoParams=none",
+            EntityUtils.toString(adapter.buildRequestBody("retrieve", request, new SolrQualificationParser())));
+        
+        assertEquals(String.format("%s/%s/select?wt=json&rows=1000&start=0", apiUrl, structure),
+            adapter.buildUrl("search", request));
+        assertEquals("q=name%3Aipod&fl=id%2Cname&sort=price+desc&echoParams=none",
+            EntityUtils.toString(adapter.buildRequestBody("search", request, new SolrQualificationParser())));
+        
+        // A root path can read the echoed parameters of the header.
+        request.setQuery("{\"type\": \"Solr DSL\", \"jsonRootPath\": \"$.response.docs\", \"query\": \"name:ipod\"}");
+        assertFalse(EntityUtils.toString(adapter.buildRequestBody("search", request, new SolrQualificationParser()))
+            .contains("echoParams"));
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testRetrieveResults_realTimeGet() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeParameters = new HashMap<String, String>();
+        bridgeParameters.put("Id", "IW-02");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(bridgeParameters);
+        request.setMetadata(new HashMap<String, String>());
+        request.setStructure(structure);
+        request.setFields(Arrays.asList("id", "name"));
+        
+        long gets = stub == null ? 0 : stub.getRequestCount("get");
+        request.setQuery("id:<%= parameter[\"Id\"] %>");
+        Record lucene = adapter.retrieve(request);
+        request.setQuery("{\"type\": \"Kinetic DSL\", \"query\": \"{\\\"id\\\": {\\\"value\\\": \\\"<%= parameter[\"Id\"] %>\\\"}}\"}");
+        Record kinetic = adapter.retrieve(request);
+        
+        assertEquals("IW-02", lucene.getValue("id"));
+        assertEquals("iPod & iPod Mini USB 2.0 Cable", lucene.getValue("name"));
+        assertEquals(lucene.getRecord(), kinetic.getRecord());
+        if (stub != null) {
+            // Both lookups went to the real-time get handler instead of /select.
+            assertEquals(gets + 2, stub.getRequestCount("get"));
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testRetrieveResults_realTimeGetNotCached() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Result Cache Size", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        long gets = stub == null ? 0 : stub.getRequestCount("get");
+        Record first = adapter.retrieve(retrieveRequest("IW-02", "id", "name"));
+        Record second = adapter.retrieve(retrieveRequest("IW-02", "id", "name"));
+        
+        assertEquals("IW-02", first.getValue("id"));
+        assertEquals(first.getRecord(), second.getRecord());
+        if (stub != null) {
+            // A real-time get sees uncommitted updates, so it is sent every time.
+            assertEquals(gets + 2, stub.getRequestCount("get"));
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testCountResults_batched() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Count Batch Size", "10");
+        configuration.put("Count Batch Window (Milliseconds)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        List<String> queries = Arrays.asList("name:ipod", "name:GB18030", "*:*", "name:ipod", "name:nothing",
+            "{\"type\": \"Solr DSL\", \"query\": \"{\\\"query\\\": \\\"name:*ipod*\\\"}\"}");
+        long selects = stub == null ? 0 : stub.getRequestCount("select");
+        
+        List<CompletableFuture<Count>> counts = new ArrayList<CompletableFuture<Count>>();
+        for (String query : queries) {
+            counts.add(adapter.countAsync(countRequest(query)));
+        }
+        List<Integer> batched = new ArrayList<Integer>();
+        for (CompletableFuture<Count> count : counts) {
+            batched.add(count.get(10, TimeUnit.SECONDS).getValue());
+        }
+        SolrMicroBatcher<String,Long> batcher = adapter.getCountBatcher();
+        // The JSON query is not sent as a query facet, the repeated query shares the first one's call.
+        assertEquals(queries.size() - 2, batcher.getCallCount());
+        assertTrue(batcher.getBatchCount() < batcher.getCallCount());
+        if (stub != null) {
+            assertTrue(stub.getRequestCount("select") - selects < queries.size());
+        }
+        
+        configuration.remove("Count Batch Size");
+        SolrAdapter unbatchedAdapter = new SolrAdapter();
+        unbatchedAdapter.setProperties(configuration);
+        unbatchedAdapter.initialize();
+        for (int i = 0; i < queries.size(); i++) {
+            assertEquals(unbatchedAdapter.count(countRequest(queries.get(i))).getValue(), batched.get(i));
+        }
+        assertEquals(Integer.valueOf(3), batched.get(0));
+        assertEquals(Integer.valueOf(0), batched.get(4));
+        
+        adapter.destroy();
+        unbatchedAdapter.destroy();
+    }
+    
+    @Test
+    public void testCountResults_batchedFilter() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Count Batch Size", "10");
+        configuration.put("Count Batch Window (Milliseconds)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        // Counts with the same filter query share a batch, those without it get their own.
+        String filtered = "{\"type\": \"Solr DSL\", \"query\": \"%s\", \"params\": {\"fq\": \"name:ipod\"}}";
+        List<String> queries = Arrays.asList(String.format(filtered, "*:*"), String.format(filtered, "name:GB18030"),
+            String.format(filtered, "name:ipod"), "*:*", "name:GB18030");
+        List<CompletableFuture<Count>> counts = new ArrayList<CompletableFuture<Count>>();
+        for (String query : queries) {
+            counts.add(adapter.countAsync(countRequest(query)));
+        }
+        List<Integer> batched = new ArrayList<Integer>();
+        for (CompletableFuture<Count> count : counts) {
+            batched.add(count.get(10, TimeUnit.SECONDS).getValue());
+        }
+        assertEquals(2, adapter.getCountBatcher().getBatchCount());
+        
+        configuration.remove("Count Batch Size");
+        SolrAdapter unbatchedAdapter = new SolrAdapter();
+        unbatchedAdapter.setProperties(configuration);
+        unbatchedAdapter.initialize();
+        for (int i = 0; i < queries.size(); i++) {
+            assertEquals(unbatchedAdapter.count(countRequest(queries.get(i))).getValue(), batched.get(i));
+        }
+        assertEquals(Arrays.asList(3, 0, 3), batched.subList(0, 3));
+        if (stub != null) {
+            assertEquals(Arrays.asList(6, 1), batched.subList(3, 5));
+        }
+        
+        adapter.destroy();
+        unbatchedAdapter.destroy();
+    }
+    
+    @Test
+    public void testCountResults_reservedParams() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        try {
+            adapter.count(countRequest("{\"type\": \"Solr DSL\", \"query\": \"*:*\", \"params\": {\"rows\": \"5\"}}"));
+            fail("The params should not be able to set rows.");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains("rows"));
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testCountResults_batchedInvalidQuery() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Count Batch Size", "3");
+        configuration.put("Count Batch Window (Milliseconds)", "1000");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        // Solr refuses the batch for its invalid query, so each count is sent on its own.
+        long selects = stub.getRequestCount("select");
+        List<CompletableFuture<Count>> counts = new ArrayList<CompletableFuture<Count>>();
+        for (String query : Arrays.asList("name:ipod", "name:(ipod", "*:*")) {
+            counts.add(adapter.countAsync(countRequest(query)));
+        }
+        assertEquals(Integer.valueOf(3), counts.get(0).get(10, TimeUnit.SECONDS).getValue());
+        assertNotNull(counts.get(2).get(10, TimeUnit.SECONDS).getValue());
+        try {
+            counts.get(1).get(10, TimeUnit.SECONDS);
+            fail("The invalid query should have failed.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SolrResponseError);
+            assertEquals(400, ((SolrResponseError)e.getCause()).getStatus());
+        }
+        assertEquals(selects + 4, stub.getRequestCount("select"));
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testCountResults_batchedServerError() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Count Batch Size", "3");
+        configuration.put("Count Batch Window (Milliseconds)", "1000");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        stub.setErrors(1.0, 503);
+        try {
+            // A server error fails every count of the batch instead of sending each of them again.
+            long selects = stub.getRequestCount("select");
+            List<CompletableFuture<Count>> counts = new ArrayList<CompletableFuture<Count>>();
+            for (String query : Arrays.asList("name:ipod", "name:GB18030", "*:*")) {
+                counts.add(adapter.countAsync(countRequest(query)));
+            }
+            for (CompletableFuture<Count> count : counts) {
+                try {
+                    count.get(10, TimeUnit.SECONDS);
+                    fail("The count should have failed.");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SolrResponseError);
+                    assertEquals(503, ((SolrResponseError)e.getCause()).getStatus());
+                }
+            }
+            assertEquals(selects + 1, stub.getRequestCount("select"));
+        } finally {
+            stub.setErrors(0);
+        }
+        
+        adapter.destroy();
+    }
+    
+    private BridgeRequest countRequest(String query) {
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(new HashMap<String, String>());
+        request.setStructure(structure);
+        request.setQuery(query);
+        return request;
+    }
+    
+    @Test
+    public void testRetrieveResults_batched() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Retrieve Batch Size", "10");
+        configuration.put("Retrieve Batch Window (Milliseconds)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        List<String> ids = Arrays.asList("IW-02", "SP2514N", "6H500F0", "F8V7067-APL-KIT", "IW-02");
+        // Reads the uniqueKey, so that every lookup below is recognized as one by id.
+        adapter.retrieve(retrieveRequest("IW-02"));
+        long gets = stub == null ? 0 : stub.getRequestCount("get");
+        
+        List<CompletableFuture<Record>> lookups = new ArrayList<CompletableFuture<Record>>();
+        for (String id : ids) {
+            lookups.add(adapter.retrieveAsync(retrieveRequest(id)));
+        }
+        List<Record> records = new ArrayList<Record>();
+        for (CompletableFuture<Record> lookup : lookups) {
+            records.add(lookup.get(10, TimeUnit.SECONDS));
+        }
+        SolrMicroBatcher<String,Object> batcher = adapter.getRetrieveBatcher();
+        assertTrue(batcher.getBatchCount() < batcher.getCallCount());
+        if (stub != null) {
+            assertTrue(stub.getRequestCount("get") - gets < ids.size());
+        }
+        
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), records.get(i).getValue("id"));
+            assertEquals(adapter.retrieve(retrieveRequest(ids.get(i))).getRecord(), records.get(i).getRecord());
+        }
+        // The name field was asked for, not the id the documents are matched up by.
+        assertEquals(Arrays.asList("name"), new ArrayList<String>(
+            adapter.retrieve(retrieveRequest("SP2514N", "name")).getRecord().keySet()));
+        
+        adapter.destroy();
+    }
+    
+    private BridgeRequest retrieveRequest(String id, String... fields) {
+        Map<String, String> bridgeParameters = new HashMap<String, String>();
+        bridgeParameters.put("Id", id);
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(bridgeParameters);
+        request.setMetadata(new HashMap<String, String>());
+        request.setStructure(structure);
+        request.setFields(fields.length == 0 ? Arrays.asList("id", "name") : Arrays.asList(fields));
+        request.setQuery("id:<%= parameter[\"Id\"] %>");
+        return request;
+    }
+    
+    @Test
+    public void testSearchResults_export() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeParameters = new HashMap<String, String>();
+        bridgeParameters.put("product name", "ipod");
+        // The page size and offset do not apply to an export.
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "2");
+        bridgeMetadata.put("offset", "0");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(bridgeParameters);
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("{\"type\": \"Solr DSL\", \"export\": true, \"query\": \"name:<%= parameter[\"product name\"] %>\"}");
+        
+        long exports = stub == null ? 0 : stub.getRequestCount("export");
+        long selects = stub == null ? 0 : stub.getRequestCount("select");
+        request.setFields(Arrays.asList("id", "price"));
+        RecordList exported = adapter.search(request);
+        assertEquals(3, exported.getRecords().size());
+        assertEquals("3", exported.getMetadata().get("count"));
+        assertEquals("3", exported.getMetadata().get("size"));
+        if (stub != null) {
+            assertEquals(exports + 1, stub.getRequestCount("export"));
+            assertEquals(selects, stub.getRequestCount("select"));
+        }
+        
+        // The name field has no docValues, so every page is read from /select instead.
+        request.setFields(Arrays.asList("id", "name"));
+        RecordList paged = adapter.search(request);
+        assertEquals(3, paged.getRecords().size());
+        assertEquals("3", paged.getMetadata().get("count"));
+        assertEquals("3", paged.getMetadata().get("size"));
+        if (stub != null) {
+            assertEquals(exports + 1, stub.getRequestCount("export"));
+            assertEquals(selects + 2, stub.getRequestCount("select"));
+        }
+        for (int i = 0; i < exported.getRecords().size(); i++) {
+            assertEquals(exported.getRecords().get(i).getValue("id"), paged.getRecords().get(i).getValue("id"));
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_exportSchemaLookups() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeParameters = new HashMap<String, String>();
+        bridgeParameters.put("product name", "ipod");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(bridgeParameters);
+        request.setMetadata(new HashMap<String, String>());
+        request.setStructure(structure);
+        request.setQuery("{\"type\": \"Solr DSL\", \"export\": true, \"query\": \"name:<%= parameter[\"product name\"] %>\"}");
+        
+        // The schema does not know the unknown field, which is remembered like the answers it gives.
+        request.setFields(Arrays.asList("id", "unknown"));
+        assertEquals(3, adapter.search(request).getRecords().size());
+        long schemaReads = stub == null ? 0 : stub.getRequestCount("schema");
+        long exports = stub == null ? 0 : stub.getRequestCount("export");
+        assertEquals(3, adapter.search(request).getRecords().size());
+        if (stub != null) {
+            assertEquals(schemaReads, stub.getRequestCount("schema"));
+            assertEquals(exports, stub.getRequestCount("export"));
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_exportHedged() throws Exception {
+        // The stub is slowed down so that every export and page is hedged.
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Hedge Delay (Milliseconds)", "10");
+        configuration.put("Hedge Budget (Percent)", "100");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "2");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("{\"type\": \"Solr DSL\", \"export\": true, \"query\": \"name:ipod\"}");
+        
+        stub.setLatency(SolrStubServer.Distribution.uniform(20, 60));
+        try {
+            // Exported, then read page by page since name has no docValues.
+            for (List<String> fields : Arrays.asList(Arrays.asList("id", "price"), Arrays.asList("id", "name"))) {
+                request.setFields(fields);
+                for (int i = 0; i < 5; i++) {
+                    RecordList records = adapter.search(request);
+                    assertEquals("3", records.getMetadata().get("size"));
+                    Set<Object> ids = new HashSet<Object>();
+                    for (Record record : records.getRecords()) {
+                        ids.add(record.getValue("id"));
+                    }
+                    assertEquals(3, ids.size());
+                    assertEquals(3, records.getRecords().size());
+                }
+            }
+        } finally {
+            stub.setLatency(null);
+        }
+        assertTrue(adapter.getHedger().getHedgeCount() > 0);
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_splitFetch() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        configuration.put("Split Fetch Page Size", "2");
+        SolrAdapter splitAdapter = new SolrAdapter();
+        splitAdapter.setProperties(configuration);
+        splitAdapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "5");
+        bridgeMetadata.put("offset", "1");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("*:*");
+        request.setFields(Arrays.asList("id", "name"));
+        // The split windows are sorted with the uniqueKey as a tie-break, the single request is
+        // given the same total order so the pages can be compared.
+        bridgeMetadata.put("order", "<%=field[\"score\"]%>:DESC,<%=field[\"id\"]%>:ASC");
+        
+        RecordList single = adapter.search(request);
+        long selects = stub == null ? 0 : stub.getRequestCount("select");
+        RecordList split = splitAdapter.search(request);
+        if (stub != null) {
+            // Windows of 2, 2 and 1 rows.
+            assertEquals(selects + 3, stub.getRequestCount("select"));
+            assertEquals("6", split.getMetadata().get("count"));
+        }
+        assertEquals("5", split.getMetadata().get("size"));
+        assertEquals(single.getMetadata(), split.getMetadata());
+        assertEquals(single.getRecords().size(), split.getRecords().size());
+        for (int i = 0; i < single.getRecords().size(); i++) {
+            assertEquals(single.getRecords().get(i).getRecord(), split.getRecords().get(i).getRecord());
+        }
+        
+        adapter.destroy();
+        splitAdapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_splitFetchFailure() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        configuration.put("Split Fetch Page Size", "2");
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "5");
+        bridgeMetadata.put("offset", "0");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("*:*");
+        request.setFields(Arrays.asList("id", "name"));
+        // Reads the uniqueKey, so the windows are sent right away.
+        adapter.search(request);
+        
+        // The first window fails right away, the others would take seconds.
+        AtomicInteger windows = new AtomicInteger();
+        stub.setLatency(random -> windows.getAndIncrement() == 0 ? 0 : 3000);
+        stub.setErrors(1.0, 503);
+        try {
+            long start = System.nanoTime();
+            try {
+                adapter.search(request);
+                fail("The search should have failed.");
+            } catch (BridgeError e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("503"));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            // The slow windows were cancelled, releasing their reservations.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (adapter.getSplitWindowsInFlight() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, adapter.getSplitWindowsInFlight());
+        } finally {
+            stub.setLatency(null);
+            stub.setErrors(0);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_compression() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        configuration.put("Request Compression Threshold (Bytes)", "64");
+        SolrAdapter compressingAdapter = new SolrAdapter();
+        compressingAdapter.setProperties(configuration);
+        compressingAdapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "20");
+        bridgeMetadata.put("offset", "0");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("*:*");
+        request.setFields(Arrays.asList("id", "name", "manu", "manu_id_s", "cat", "features", "price", "popularity",
+            "inStock", "manufacturedate_dt", "weight", "includes", "store", "payloads", "author", "series_t"));
+        
+        RecordList plain = adapter.search(request);
+        RecordList compressed;
+        stub.setCompression(true);
+        try {
+            compressed = compressingAdapter.search(request);
+        } finally {
+            stub.setCompression(false);
+        }
+        assertEquals(plain.getMetadata(), compressed.getMetadata());
+        assertEquals(plain.getRecords().size(), compressed.getRecords().size());
+        for (int i = 0; i < plain.getRecords().size(); i++) {
+            assertEquals(plain.getRecords().get(i).getRecord(), compressed.getRecords().get(i).getRecord());
+        }
+        
+        SolrQueryMetricsMXBean plainMetrics =
+            ((JmxMetricsRegistry)adapter.getMetricsRegistry()).getMetrics().get("search").get(structure);
+        SolrQueryMetricsMXBean compressedMetrics =
+            ((JmxMetricsRegistry)compressingAdapter.getMetricsRegistry()).getMetrics().get("search").get(structure);
+        // The uncompressed exchange is counted as is, the compressed one on both sides of the gzip.
+        assertEquals(plainMetrics.getRequestBytes(), plainMetrics.getRequestBytesSent());
+        assertEquals(plainMetrics.getBytesReceived(), plainMetrics.getBytesDecoded());
+        assertEquals(plainMetrics.getRequestBytes(), compressedMetrics.getRequestBytes());
+        assertTrue(compressedMetrics.getRequestBytesSent() < compressedMetrics.getRequestBytes());
+        assertEquals(plainMetrics.getBytesDecoded(), compressedMetrics.getBytesDecoded());
+        assertTrue(compressedMetrics.getBytesReceived() < compressedMetrics.getBytesDecoded());
+        
+        adapter.destroy();
+        compressingAdapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_corruptCompression() throws Exception {
+        if (stub == null) return;
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        BridgeRequest request = countRequest("*:*");
+        request.setFields(Arrays.asList("id", "name"));
+        stub.setCompression(true).setCorruptCompression(true);
+        try {
+            adapter.search(request);
+            fail("The search should have failed.");
+        } catch (BridgeError e) {
+            // A body that can not be decompressed is a bad response, not a failed connection.
+            assertTrue(e.getMessage(), e.getMessage().contains("corrupt"));
+            assertTrue(e.getCause() instanceof ZipException);
+        } finally {
+            stub.setCompression(false).setCorruptCompression(false);
+        }
+        
+        adapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_javabin() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter jsonAdapter = new SolrAdapter();
+        jsonAdapter.setProperties(configuration);
+        jsonAdapter.initialize();
+        
+        configuration.put("Response Format", "javabin");
+        SolrAdapter javabinAdapter = new SolrAdapter();
+        javabinAdapter.setProperties(configuration);
+        javabinAdapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "1000");
+        bridgeMetadata.put("offset", "0");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("name:ipod");
+        request.setFields(
+            Arrays.asList(
+                "id",
+                "name",
+                "cat",
+                "price",
+                "popularity",
+                "inStock",
+                "manufacturedate_dt"
+            )
+        );
+        
+        assertEquals(String.format("%s/%s/select?wt=javabin&rows=1000&start=0", apiUrl, structure),
+            javabinAdapter.buildUrl("search", request));
+        
+        RecordList expected = jsonAdapter.search(request);
+        RecordList actual = javabinAdapter.search(request);
+        assertEquals(expected.getMetadata(), actual.getMetadata());
+        assertEquals(expected.getRecords().size(), actual.getRecords().size());
+        for (int i = 0; i < expected.getRecords().size(); i++) {
+            assertEquals(expected.getRecords().get(i).getRecord(), actual.getRecords().get(i).getRecord());
+        }
+        assertEquals(jsonAdapter.count(request).getValue(), javabinAdapter.count(request).getValue());
+        
+        // A query can choose its own format, a jsonRootPath always needs JSON.
+        request.setQuery("{\"type\": \"Solr DSL\", \"responseFormat\": \"javabin\", \"query\": \"{\\\"query\\\": \\\"name:*ipod*\\\"}\"}");
+        assertEquals(String.format("%s/%s/select?wt=javabin&rows=1000&start=0", apiUrl, structure),
+            jsonAdapter.buildUrl("search", request));
+        request.setQuery("{\"type\": \"Solr DSL\", \"responseFormat\": \"javabin\", \"jsonRootPath\": \"$.response.docs\", \"query\": \"{\\\"query\\\": \\\"name:*ipod*\\\"}\"}");
+        assertEquals(String.format("%s/%s/select?wt=json&rows=1000&start=0", apiUrl, structure),
+            jsonAdapter.buildUrl("search", request));
+        
+        jsonAdapter.destroy();
+        javabinAdapter.destroy();
+    }
+    
+    @Test
+    public void testSearchResults_jsonPathFields() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("Solr URL", apiUrl);
+        
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(configuration);
+        adapter.initialize();
+        
+        Map<String, String> bridgeMetadata = new HashMap<String, String>();
+        bridgeMetadata.put("pageSize", "1000");
+        bridgeMetadata.put("offset", "0");
+        
+        BridgeRequest request = new BridgeRequest();
+        request.setParameters(new HashMap<String, String>());
+        request.setMetadata(bridgeMetadata);
+        request.setStructure(structure);
+        request.setQuery("name:ipod");
+        request.setFields(Arrays.asList("name", "$.cat[0]", "features[1]", "$['price','popularity']"));
+        
+        // Only the top level fields the expressions read are requested.
+        String body = EntityUtils.toString(adapter.buildRequestBody("search", request, new SolrQualificationParser()));
+        assertTrue(body, body.contains("&fl=name%2Ccat%2Cfeatures%2Cprice%2Cpopularity"));
+        
+        RecordList records = adapter.search(request);
+        assertFalse(records.getRecords().isEmpty());
+        for (Record record : records.getRecords()) {
+            assertNotNull(record.getValue("name"));
+            assertNotNull(record.getValue("$.cat[0]"));
+            assertEquals("electronics", record.getValue("$.cat[0]"));
+        }
+        
+        // A deep scan can read any field, so every field is returned.
+        request.setFields(Arrays.asList("name", "$..id"));
+        body = EntityUtils.toString(adapter.buildRequestBody("search", request, new SolrQualificationParser()));
+        assertFalse(body, body.contains("fl="));
+        
+        adapter.destroy();
+    }
+    
 }
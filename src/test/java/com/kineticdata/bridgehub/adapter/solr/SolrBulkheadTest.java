@@ -0,0 +1,82 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks how the limit of a bulkhead adapts to the latency of the requests it lets through, and
+ * that waiting requests are let through as soon as the limit allows.
+ */
+public class SolrBulkheadTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testBacksOffOncePerRoundTrip() {
+        SolrBulkhead bulkhead = new SolrBulkhead("core", 10, 0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bulkhead.acquire().isDone());
+        }
+        bulkhead.release("select", FAST);
+        assertEquals(10, bulkhead.getLimit());
+        bulkhead.release("select", SLOW);
+        assertEquals(9, bulkhead.getLimit());
+        // Both were sent before the limit backed off, they saw the load it already reacted to.
+        bulkhead.release("select", SLOW);
+        bulkhead.release("select", SLOW);
+        assertEquals(9, bulkhead.getLimit());
+    }
+
+    @Test
+    public void testComparesLatencyByRequestType() {
+        SolrBulkhead bulkhead = new SolrBulkhead("core", 10, 0);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bulkhead.acquire().isDone());
+        }
+        bulkhead.release("get", FAST);
+        bulkhead.release("export", SLOW);
+        bulkhead.release("export", SLOW);
+        bulkhead.release("get", FAST);
+        // The exports are slow compared to the gets, but not compared to other exports.
+        assertEquals(10, bulkhead.getLimit());
+    }
+
+    @Test
+    public void testReleaseWakesEveryWaiterTheLimitAllows() {
+        SolrBulkhead bulkhead = new SolrBulkhead("core", 2, 5);
+        assertTrue(bulkhead.acquire().isDone());
+        assertTrue(bulkhead.acquire().isDone());
+        bulkhead.release("select", FAST);
+        assertTrue(bulkhead.acquire().isDone());
+        bulkhead.release("select", SLOW);
+        assertEquals(1, bulkhead.getLimit());
+        assertEquals(1, bulkhead.getActiveCount());
+
+        CompletableFuture<Void> first = bulkhead.acquire();
+        CompletableFuture<Void> second = bulkhead.acquire();
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(2, bulkhead.getQueueLength());
+
+        // The limit grows back to 2, so the one release lets both waiting requests through.
+        bulkhead.release("select", FAST);
+        assertEquals(2, bulkhead.getLimit());
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(2, bulkhead.getActiveCount());
+        assertEquals(0, bulkhead.getQueueLength());
+    }
+
+    @Test
+    public void testReleaseWithoutLatencyKeepsTheLimit() {
+        SolrBulkhead bulkhead = new SolrBulkhead("core", 3, 1);
+        assertTrue(bulkhead.acquire().isDone());
+        bulkhead.release();
+        assertEquals(3, bulkhead.getLimit());
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+}
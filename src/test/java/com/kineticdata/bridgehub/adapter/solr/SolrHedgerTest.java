@@ -0,0 +1,129 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the hedger sends a hedge and that whichever request loses the race is cancelled,
+ * with requests the test answers itself.
+ */
+public class SolrHedgerTest {
+
+    private static final long DELAY_MILLIS = 100;
+
+    private ScheduledExecutorService scheduler;
+    private SolrHedger hedger;
+    private final List<CompletableFuture<String>> attempts = new CopyOnWriteArrayList<CompletableFuture<String>>();
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        hedger = new SolrHedger(DELAY_MILLIS, 0, 100, scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private CompletableFuture<String> attempt() {
+        CompletableFuture<String> attempt = new CompletableFuture<String>();
+        attempts.add(attempt);
+        return attempt;
+    }
+
+    private void awaitAttempts(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (attempts.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, attempts.size());
+    }
+
+    @Test
+    public void testHedgeWinsAndCancelsTheOriginal() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<String> result = hedger.execute(this::attempt);
+        assertEquals(1, attempts.size());
+
+        awaitAttempts(2);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS));
+        assertEquals(1, hedger.getHedgeCount());
+        assertFalse(result.isDone());
+
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.get(1, TimeUnit.SECONDS));
+        assertTrue(attempts.get(0).isCancelled());
+        assertEquals(1, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void testOriginalWinsAndCancelsTheHedge() throws Exception {
+        CompletableFuture<String> result = hedger.execute(this::attempt);
+        awaitAttempts(2);
+
+        attempts.get(0).complete("original");
+        assertEquals("original", result.get(1, TimeUnit.SECONDS));
+        assertTrue(attempts.get(1).isCancelled());
+        assertEquals(1, hedger.getHedgeCount());
+        assertEquals(0, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void testNoHedgeForAnAnswerWithinTheDelay() throws Exception {
+        CompletableFuture<String> result = hedger.execute(this::attempt);
+        attempts.get(0).complete("original");
+        assertEquals("original", result.get(1, TimeUnit.SECONDS));
+
+        Thread.sleep(DELAY_MILLIS * 2);
+        assertEquals(1, attempts.size());
+        assertEquals(0, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void testFailedAttemptWaitsForTheOther() throws Exception {
+        CompletableFuture<String> result = hedger.execute(this::attempt);
+        awaitAttempts(2);
+
+        attempts.get(0).completeExceptionally(new IllegalStateException("original failed"));
+        assertFalse(result.isDone());
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoHedgeWithoutASlot() throws Exception {
+        CompletableFuture<String> result = hedger.execute(this::attempt, () -> null);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hedger.getSlotDenialCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, hedger.getSlotDenialCount());
+        assertEquals(0, hedger.getHedgeCount());
+        assertEquals(1, attempts.size());
+
+        // The query goes on alone, and fails alone.
+        attempts.get(0).completeExceptionally(new IllegalStateException("original failed"));
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("Expected the query to fail");
+        } catch (ExecutionException e) {
+            assertEquals("original failed", e.getCause().getMessage());
+        }
+
+        // The budget was refunded, so the next slow query is hedged.
+        hedger.execute(this::attempt);
+        awaitAttempts(3);
+        assertEquals(1, hedger.getHedgeCount());
+    }
+
+}
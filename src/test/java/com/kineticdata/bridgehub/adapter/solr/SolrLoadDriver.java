@@ -0,0 +1,215 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Hammers a SolrAdapter from a number of threads and reports throughput, latency percentiles,
+ * open sockets and heap use. Without a -url it runs against an in-process {@link SolrStubServer}
+ * whose latency, errors and payload size can be shaped from the command line.
+ *
+ * <pre>
+ * SolrLoadDriver [-threads 32] [-duration 30] [-warmup 5] [-method search|count|retrieve]
+ *     [-core techproducts] [-query *:*] [-fields id,name] [-pageSize 10] [-url http://localhost:8983/solr]
+ *     [-latency 5] [-latencyP99 50] [-payload 100] [-errors 0.01]
+ *     [-property "Result Cache Size=1000"]...
+ * </pre>
+ *
+ * -latency is the median stub latency in milliseconds, long tailed up to -latencyP99 when given.
+ * -payload is the number of documents the stub generates for the query, -errors the share of
+ * stub responses that are a 500. Open sockets are counted from /proc/self/fd, so they are only
+ * reported on Linux and include the sockets of the stub when it runs in process.
+ */
+public class SolrLoadDriver {
+
+    private final Map<String,String> options = new LinkedHashMap<>();
+    private final Map<String,String> properties = new HashMap<>();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong maxHeap = new AtomicLong();
+    private final AtomicLong maxSockets = new AtomicLong(-1);
+
+    public static void main(String[] args) throws Exception {
+        new SolrLoadDriver(args).run();
+        System.exit(0);
+    }
+
+    SolrLoadDriver(String[] args) {
+        options.put("threads", "32");
+        options.put("duration", "30");
+        options.put("warmup", "5");
+        options.put("method", "search");
+        options.put("core", "techproducts");
+        options.put("query", "*:*");
+        options.put("pageSize", "10");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i].replaceFirst("^-+", "");
+            if ("property".equals(name)) {
+                String[] property = args[i + 1].split("=", 2);
+                properties.put(property[0], property.length > 1 ? property[1] : "");
+            } else {
+                options.put(name, args[i + 1]);
+            }
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected option value pairs but got " + Arrays.toString(args));
+        }
+    }
+
+    void run() throws Exception {
+        SolrStubServer stub = null;
+        String url = options.get("url");
+        if (url == null) {
+            stub = SolrStubServer.techproducts();
+            if (options.containsKey("latency")) {
+                double median = Double.parseDouble(options.get("latency"));
+                stub.setLatency(options.containsKey("latencyP99")
+                    ? SolrStubServer.Distribution.logNormal(median, Double.parseDouble(options.get("latencyP99")))
+                    : SolrStubServer.Distribution.fixed(Math.round(median)));
+            }
+            if (options.containsKey("payload")) {
+                stub.setPayloadSize(SolrStubServer.Distribution.fixed(Long.parseLong(options.get("payload"))));
+                // Generated documents are only served to queries that match no recording.
+                if ("*:*".equals(options.get("query"))) options.put("query", "name:generated");
+            }
+            if (options.containsKey("errors")) {
+                stub.setErrors(Double.parseDouble(options.get("errors")), 500);
+            }
+            url = stub.start().getUrl();
+        }
+
+        properties.put(SolrAdapter.Properties.API_URL, url);
+        SolrAdapter adapter = new SolrAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        int threads = Integer.parseInt(options.get("threads"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+        System.out.printf("Running %s against %s from %d threads for %ds after a %ds warmup%n",
+            options.get("method"), url, threads, TimeUnit.NANOSECONDS.toSeconds(duration),
+            TimeUnit.NANOSECONDS.toSeconds(warmup));
+
+        long begin = System.nanoTime();
+        long measureFrom = begin + warmup;
+        long end = measureFrom + duration;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    work(adapter, measureFrom, end);
+                } finally {
+                    done.countDown();
+                }
+            }, "solr-load-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        while (done.await(1, TimeUnit.SECONDS) == false) {
+            sample(memory);
+        }
+
+        report(TimeUnit.NANOSECONDS.toMillis(Math.min(System.nanoTime(), end) - measureFrom));
+        if (stub != null) {
+            System.out.printf("Stub requests: %d (%d injected errors)%n", stub.getRequestCount(), stub.getErrorCount());
+        }
+        adapter.destroy();
+        if (stub != null) stub.close();
+    }
+
+    private void work(SolrAdapter adapter, long measureFrom, long end) {
+        BridgeRequest request = buildRequest();
+        String method = options.get("method");
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            boolean failed = false;
+            try {
+                if ("count".equals(method)) {
+                    adapter.count(request);
+                } else if ("retrieve".equals(method)) {
+                    adapter.retrieve(request);
+                } else {
+                    adapter.search(request);
+                }
+            } catch (BridgeError | RuntimeException e) {
+                failed = true;
+            }
+            if (now >= measureFrom) {
+                latencies.recordNanos(System.nanoTime() - now);
+                if (failed) errors.increment();
+            }
+        }
+    }
+
+    private BridgeRequest buildRequest() {
+        Map<String,String> metadata = new HashMap<>();
+        metadata.put("pageSize", options.get("pageSize"));
+        metadata.put("offset", "0");
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure(options.get("core"));
+        request.setQuery(options.get("query"));
+        request.setParameters(new HashMap<String,String>());
+        request.setMetadata(metadata);
+        if (options.containsKey("fields")) {
+            request.setFields(Arrays.asList(options.get("fields").split(",")));
+        }
+        return request;
+    }
+
+    private void sample(MemoryMXBean memory) {
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        maxHeap.accumulateAndGet(heap, Math::max);
+        maxSockets.accumulateAndGet(countSockets(), Math::max);
+    }
+
+    private void report(long elapsedMillis) {
+        LatencyHistogram.Summary summary = latencies.getSummary();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.out.printf("Requests:    %d (%d failed)%n", summary.getCount(), errors.sum());
+        System.out.printf("Throughput:  %.1f requests/s%n", summary.getCount() * 1000.0 / Math.max(1, elapsedMillis));
+        System.out.printf("Latency:     mean %.2f ms, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+            summary.getMeanMillis(), summary.getP50Millis(), summary.getP95Millis(), summary.getP99Millis(),
+            summary.getMaxMillis());
+        long sockets = countSockets();
+        System.out.printf("Sockets:     %s open, %s at most%n",
+            sockets < 0 ? "n/a" : sockets, maxSockets.get() < 0 ? "n/a" : maxSockets.get());
+        System.out.printf("Heap:        %d MB used, %d MB at most, %d MB max%n",
+            memory.getHeapMemoryUsage().getUsed() >> 20, maxHeap.get() >> 20, memory.getHeapMemoryUsage().getMax() >> 20);
+    }
+
+    /** The number of open sockets of this process, -1 when it cannot be told. */
+    private static long countSockets() {
+        File descriptors = new File("/proc/self/fd");
+        if (descriptors.isDirectory() == false) {
+            return -1;
+        }
+        try (Stream<Path> files = Files.list(descriptors.toPath())) {
+            return files.filter(file -> {
+                try {
+                    return Files.readSymbolicLink(file).toString().startsWith("socket:");
+                } catch (IOException | UnsupportedOperationException e) {
+                    return false;
+                }
+            }).count();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,739 @@
+package com.kineticdata.bridgehub.adapter.solr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContainerFactory;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * An in-process stand-in for a Solr server, for running the adapter tests and load tests without
+ * a Solr cluster. It serves the parts of the Solr HTTP API the adapter uses:
+ *
+ * <ul>
+ *   <li><code>/{core}/select</code> answers recorded queries with the recorded documents, applying
+ *       rows, start, fl and cursorMark. An fq narrows the documents to those recorded for
+ *       it as a q. Other queries match nothing, or return generated
+ *       documents when a payload size is set. A query with unbalanced parentheses, in q or in a
+ *       query facet, is refused with a 400 like a Solr syntax error.</li>
+ *   <li><code>/{core}/get</code> returns the documents with the requested ids.</li>
+ *   <li><code>/{core}/schema/uniquekey</code>, <code>/{core}/admin/luke</code> and
+ *       <code>/admin/cores?action=STATUS</code>.</li>
+ *   <li><code>/admin/collections?action=CLUSTERSTATUS</code> once a collection has been added,
+ *       with the stub as the only live node and the leader of every shard.</li>
+ * </ul>
+ *
+ * Responses are written in JSON, or in javabin when wt=javabin is requested.
+ *
+ * Like Solr behind a GzipHandler, gzip compressed request bodies are inflated and, once
+ * compression is turned on, responses are gzip compressed for clients that accept it.
+ *
+ * Latency, errors and payload sizes of the select and get handlers can be drawn from
+ * distributions to shape a load test. A stub loaded from a recording in src/test/resources, such
+ * as {@link #techproducts()}, answers the queries recorded against the matching Solr example.
+ */
+public class SolrStubServer implements AutoCloseable {
+
+    /** Draws a value, such as a latency in milliseconds or a number of documents. */
+    public interface Distribution {
+        long sample(Random random);
+
+        static Distribution fixed(long value) {
+            return random -> value;
+        }
+
+        static Distribution uniform(long minimum, long maximum) {
+            return random -> minimum + (long)(random.nextDouble() * (maximum - minimum + 1));
+        }
+
+        /** A long tailed distribution with the given median and 99th percentile. */
+        static Distribution logNormal(double median, double p99) {
+            double mu = Math.log(median);
+            double sigma = (Math.log(p99) - mu) / 2.326;
+            return random -> Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+        }
+    }
+
+    private static final Distribution NONE = Distribution.fixed(0);
+
+    private static final ContainerFactory ORDERED = new ContainerFactory() {
+        @Override public Map createObjectContainer() { return new LinkedHashMap(); }
+        @Override public List creatArrayContainer() { return new ArrayList(); }
+    };
+
+    private final Map<String,Core> cores = new ConcurrentHashMap<>();
+    private final Map<String,List<String>> collections = new ConcurrentHashMap<>();
+    private final List<Recording> recordings = new CopyOnWriteArrayList<>();
+    private final LongAdder requestCount = new LongAdder();
+    private final Map<String,LongAdder> handlerRequestCounts = new ConcurrentHashMap<>();
+    private final LongAdder errorCount = new LongAdder();
+    private volatile Distribution latency = NONE;
+    private volatile Distribution adminLatency = NONE;
+    private volatile Distribution payloadSize = null;
+    private volatile double errorRate = 0;
+    private volatile int[] errorStatuses = {500};
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile String credentials = null;
+    private volatile boolean compression = false;
+    private volatile boolean corruptCompression = false;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private static class Core {
+        final String name;
+        final String uniqueKey;
+        volatile long indexVersion;
+        final Map<String,Map<String,Object>> documents = new LinkedHashMap<>();
+        final Set<String> docValues = ConcurrentHashMap.newKeySet();
+
+        Core(String name, String uniqueKey, long indexVersion) {
+            this.name = name;
+            this.uniqueKey = uniqueKey;
+            this.indexVersion = indexVersion;
+        }
+    }
+
+    private static class Recording {
+        final String core;
+        final String handler;
+        final Map<String,String> parameters;
+        final List<String> ids;
+
+        Recording(String core, String handler, Map<String,String> parameters, List<String> ids) {
+            this.core = core;
+            this.handler = handler;
+            this.parameters = parameters;
+            this.ids = ids;
+        }
+    }
+
+    /** A stub answering the queries of the adapter tests like the Solr techproducts example. */
+    public static SolrStubServer techproducts() {
+        return new SolrStubServer().load("/solr-stub/techproducts.json");
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONFIGURATION
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Loads a core and its recorded queries from a classpath resource holding its core name,
+     * uniqueKey, indexVersion, docValues fields, documents and recordings (handler, params and
+     * matching ids).
+     */
+    public SolrStubServer load(String resource) {
+        Map<String,Object> recorded;
+        try (InputStream content = SolrStubServer.class.getResourceAsStream(resource)) {
+            if (content == null) throw new IllegalArgumentException("Unable to find " + resource);
+            recorded = (Map)new JSONParser().parse(SolrAdapter.readString(content, StandardCharsets.UTF_8), ORDERED);
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("Unable to read the Solr stub recording " + resource, e);
+        }
+        String core = (String)recorded.get("core");
+        addCore(core, (String)recorded.get("uniqueKey"), ((Number)recorded.get("indexVersion")).longValue(),
+            (List)recorded.get("documents"));
+        if (recorded.get("docValues") != null) {
+            cores.get(core).docValues.addAll((List<String>)recorded.get("docValues"));
+        }
+        for (Map<String,Object> recording : (List<Map<String,Object>>)recorded.get("recordings")) {
+            record(core, (String)recording.get("handler"), (Map)recording.get("params"), (List)recording.get("ids"));
+        }
+        return this;
+    }
+
+    public SolrStubServer addCore(String name, String uniqueKey, long indexVersion, List<Map<String,Object>> documents) {
+        Core core = new Core(name, uniqueKey, indexVersion);
+        for (Map<String,Object> document : documents) {
+            core.documents.put(String.valueOf(document.get(uniqueKey)), document);
+        }
+        cores.put(name, core);
+        return this;
+    }
+
+    /**
+     * Adds a SolrCloud collection with one shard for each of the shard cores, which only report
+     * their index version. Queries are still answered by the core named after the collection.
+     */
+    public SolrStubServer addCollection(String collection, String... shardCores) {
+        for (String shardCore : shardCores) {
+            cores.put(shardCore, new Core(shardCore, cores.get(collection).uniqueKey, 1));
+        }
+        collections.put(collection, Arrays.asList(shardCores));
+        return this;
+    }
+
+    public SolrStubServer removeCollection(String collection) {
+        List<String> shardCores = collections.remove(collection);
+        if (shardCores != null) cores.keySet().removeAll(shardCores);
+        return this;
+    }
+
+    /** Changes the index version the core status reports, like a commit that changed the index. */
+    public SolrStubServer setIndexVersion(String core, long indexVersion) {
+        cores.get(core).indexVersion = indexVersion;
+        return this;
+    }
+
+    /** Answers requests to a handler carrying all of the given parameters with the given documents. */
+    public SolrStubServer record(String core, String handler, Map<String,String> parameters, List<String> ids) {
+        recordings.add(new Recording(core, handler, parameters, ids));
+        return this;
+    }
+
+    /** Delays every select and get response by a sample of the distribution, in milliseconds. */
+    public SolrStubServer setLatency(Distribution latency) {
+        this.latency = latency == null ? NONE : latency;
+        return this;
+    }
+
+    /** Delays every core and collection admin response by a sample of the distribution, in milliseconds. */
+    public SolrStubServer setAdminLatency(Distribution adminLatency) {
+        this.adminLatency = adminLatency == null ? NONE : adminLatency;
+        return this;
+    }
+
+    /**
+     * Answers select requests that match no recording with generated documents, as many as a
+     * sample of the distribution. By default such requests match no documents.
+     */
+    public SolrStubServer setPayloadSize(Distribution payloadSize) {
+        this.payloadSize = payloadSize;
+        return this;
+    }
+
+    /** Fails the given share of select and get requests with one of the given statuses. */
+    public SolrStubServer setErrors(double rate, int... statuses) {
+        this.errorRate = rate;
+        this.errorStatuses = statuses.length == 0 ? new int[] {500} : statuses;
+        return this;
+    }
+
+    /**
+     * Fails the next select and get requests to arrive, as many as the count, with the first of
+     * the error statuses once they have waited out their latency.
+     */
+    public SolrStubServer failNextRequests(int count) {
+        failures.set(count);
+        return this;
+    }
+
+    /** Requires basic authentication with the given credentials. */
+    public SolrStubServer setCredentials(String username, String password) {
+        this.credentials = username == null ? null : Base64.getEncoder().encodeToString(
+            (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /** Gzip compresses responses to clients that accept gzip. */
+    public SolrStubServer setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /** Damages the compressed data of gzip compressed responses, which their header still announces. */
+    public SolrStubServer setCorruptCompression(boolean corruptCompression) {
+        this.corruptCompression = corruptCompression;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * LIFECYCLE
+     *--------------------------------------------------------------------------------------------*/
+
+    /** Starts the stub on a free port of the loopback interface. */
+    public SolrStubServer start() {
+        // The JDK server writes the headers and body separately, without TCP_NODELAY the body
+        // waits on the delayed ACK of the headers and adds 40ms to every response.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to start the Solr stub.", e);
+        }
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "solr-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/solr", this::handle);
+        server.start();
+        return this;
+    }
+
+    /** The base URL to configure as the adapter's Solr URL. */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/solr";
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /** The number of requests sent to a request handler of any core (such as select, get or schema), or to cores. */
+    public long getRequestCount(String handler) {
+        LongAdder count = handlerRequestCounts.get(handler);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * REQUEST HANDLING
+     *--------------------------------------------------------------------------------------------*/
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.increment();
+        try {
+            String[] path = exchange.getRequestURI().getPath().substring("/solr".length()).split("/");
+            Map<String,List<String>> parameters = readParameters(exchange);
+            if (first(parameters, "wt") != null) exchange.setAttribute("wt", first(parameters, "wt"));
+            if (credentials != null
+                && ("Basic " + credentials).equals(exchange.getRequestHeaders().getFirst("Authorization")) == false)
+            {
+                respond(exchange, 401, error(401, "Authentication required."));
+            } else if (path.length == 3 && "admin".equals(path[1]) && "cores".equals(path[2])) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Thread.sleep(adminLatency.sample(ThreadLocalRandom.current()));
+                respond(exchange, 200, coreStatus(first(parameters, "core")));
+            } else if (path.length == 3 && "admin".equals(path[1]) && "collections".equals(path[2])
+                && collections.isEmpty() == false)
+            {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Thread.sleep(adminLatency.sample(ThreadLocalRandom.current()));
+                respond(exchange, 200, clusterStatus());
+            } else if (path.length == 3 && "admin".equals(path[1])) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Thread.sleep(adminLatency.sample(ThreadLocalRandom.current()));
+                respond(exchange, 400, error(400, "Solr instance is not running in SolrCloud mode."));
+            } else if (path.length >= 3 && cores.containsKey(path[1]) == false) {
+                respond(exchange, 404, error(404, "Unknown core " + path[1]));
+            } else if (path.length == 4 && "admin".equals(path[2]) && "luke".equals(path[3])) {
+                handlerRequestCounts.computeIfAbsent(path[3], handler -> new LongAdder()).increment();
+                Thread.sleep(adminLatency.sample(ThreadLocalRandom.current()));
+                Core core = cores.get(path[1]);
+                Map<String,Object> index = new LinkedHashMap<>();
+                index.put("numDocs", core.documents.size());
+                index.put("version", core.indexVersion);
+                respond(exchange, 200, Collections.singletonMap("index", index));
+            } else if (path.length == 4 && "schema".equals(path[2]) && "uniquekey".equals(path[3])) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                respond(exchange, 200, Collections.singletonMap("uniqueKey", cores.get(path[1]).uniqueKey));
+            } else if (path.length == 5 && "schema".equals(path[2]) && "fields".equals(path[3])) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Core core = cores.get(path[1]);
+                if (core.docValues.contains(path[4]) || isDocumentField(core, path[4])) {
+                    Map<String,Object> field = new LinkedHashMap<>();
+                    field.put("name", path[4]);
+                    field.put("docValues", core.docValues.contains(path[4]));
+                    respond(exchange, 200, Collections.singletonMap("field", field));
+                } else {
+                    respond(exchange, 404, error(404, "Field '" + path[4] + "' not found."));
+                }
+            } else if (path.length == 3 && "export".equals(path[2])) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Map<String,Object> exported = export(cores.get(path[1]), parameters);
+                respond(exchange, exported.containsKey("error") ? 400 : 200, exported);
+            } else if (path.length == 3 && ("select".equals(path[2]) || "get".equals(path[2]))) {
+                handlerRequestCounts.computeIfAbsent(path[2], handler -> new LongAdder()).increment();
+                Random random = ThreadLocalRandom.current();
+                boolean fail = failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+                long delay = latency.sample(random);
+                if (delay > 0) Thread.sleep(delay);
+                if (fail || (errorRate > 0 && random.nextDouble() < errorRate)) {
+                    int status = fail ? errorStatuses[0] : errorStatuses[random.nextInt(errorStatuses.length)];
+                    errorCount.increment();
+                    respond(exchange, status, error(status, "Error injected by the Solr stub."));
+                } else if ("select".equals(path[2])) {
+                    respond(exchange, 200, select(cores.get(path[1]), parameters, delay));
+                } else {
+                    respond(exchange, 200, get(cores.get(path[1]), parameters));
+                }
+            } else {
+                respond(exchange, 404, error(404, "Not found " + exchange.getRequestURI().getPath()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SyntaxError e) {
+            respond(exchange, 400, error(400, e.getMessage()));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(500, e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Map<String,Object> select(Core core, Map<String,List<String>> parameters, long qTime) {
+        List<Map<String,Object>> matches = match(core, "select", parameters);
+        int rows = Integer.parseInt(first(parameters, "rows", "10"));
+        String cursorMark = first(parameters, "cursorMark");
+        int start = cursorMark == null
+            ? Integer.parseInt(first(parameters, "start", "0"))
+            : "*".equals(cursorMark) ? 0 : Integer.parseInt(decode(cursorMark));
+        List<Map<String,Object>> page = new ArrayList<>();
+        for (int i = start; i < Math.min(matches.size(), start + rows); i++) {
+            page.add(project(matches.get(i), first(parameters, "fl")));
+        }
+
+        Map<String,Object> header = new LinkedHashMap<>();
+        header.put("status", 0);
+        header.put("QTime", qTime);
+        Map<String,Object> response = new LinkedHashMap<>();
+        response.put("numFound", matches.size());
+        response.put("start", start);
+        response.put("numFoundExact", true);
+        response.put("docs", page);
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("responseHeader", header);
+        result.put("response", response);
+        if (first(parameters, "json.facet") != null) {
+            result.put("facets", facets(core, matches, first(parameters, "json.facet")));
+        }
+        if (cursorMark != null) {
+            // Like Solr, the cursorMark that was sent comes back once the results are exhausted.
+            result.put("nextCursorMark", page.isEmpty()
+                ? cursorMark : Base64.getEncoder().encodeToString(String.valueOf(start + page.size()).getBytes()));
+        }
+        return result;
+    }
+
+    /**
+     * Answers the query facets of a JSON Facet request, each counting the documents of the
+     * recording its q matches among the documents the base query (and its fq) matched. Like
+     * Solr, the facets are left out when the base query matched nothing.
+     */
+    private Map<String,Object> facets(Core core, List<Map<String,Object>> matches, String facetJson) {
+        Map<String,Object> facets = new LinkedHashMap<>();
+        facets.put("count", matches.size());
+        if (matches.isEmpty()) return facets;
+        Map<String,Map<String,Object>> requested;
+        try {
+            requested = (Map)new JSONParser().parse(facetJson, ORDERED);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Unable to parse json.facet " + facetJson, e);
+        }
+        for (Map.Entry<String,Map<String,Object>> facet : requested.entrySet()) {
+            if ("query".equals(facet.getValue().get("type")) == false) {
+                throw new IllegalArgumentException("The stub only answers query facets.");
+            }
+            Map<String,List<String>> facetParameters =
+                Collections.singletonMap("q", Collections.singletonList((String)facet.getValue().get("q")));
+            List<Map<String,Object>> facetMatches = match(core, "select", facetParameters);
+            facetMatches.retainAll(matches);
+            facets.put(facet.getKey(), Collections.singletonMap("count", facetMatches.size()));
+        }
+        return facets;
+    }
+
+    /**
+     * Answers like the export handler, with every matching document in recorded order. Like Solr,
+     * it refuses a request without a sort and field list on docValues fields.
+     */
+    private Map<String,Object> export(Core core, Map<String,List<String>> parameters) {
+        String fieldList = first(parameters, "fl");
+        String sort = first(parameters, "sort");
+        if (fieldList == null || sort == null) {
+            return error(400, "export field list (fl) and sort (sort) must be specified.");
+        }
+        List<String> fields = new ArrayList<>(Arrays.asList(fieldList.split(",")));
+        for (String clause : sort.split(",")) fields.add(clause.trim().split("\\s+")[0]);
+        for (String field : fields) {
+            if (core.docValues.contains(field) == false) {
+                return error(400, field + " must have DocValues to use this feature.");
+            }
+        }
+        List<Map<String,Object>> documents = new ArrayList<>();
+        for (Map<String,Object> document : match(core, "select", parameters)) {
+            documents.add(project(document, fieldList));
+        }
+        Map<String,Object> response = new LinkedHashMap<>();
+        response.put("numFound", documents.size());
+        response.put("docs", documents);
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("responseHeader", Collections.singletonMap("status", 0));
+        result.put("response", response);
+        return result;
+    }
+
+    private static boolean isDocumentField(Core core, String field) {
+        for (Map<String,Object> document : core.documents.values()) {
+            if (document.containsKey(field)) return true;
+        }
+        return false;
+    }
+
+    private Map<String,Object> get(Core core, Map<String,List<String>> parameters) {
+        List<String> ids = new ArrayList<>();
+        for (String id : parameters.getOrDefault("id", Collections.<String>emptyList())) ids.add(id);
+        for (String idList : parameters.getOrDefault("ids", Collections.<String>emptyList())) {
+            // Like Solr, a backslash escapes the next character so ids can hold commas.
+            StringBuilder id = new StringBuilder();
+            for (int i = 0; i < idList.length(); i++) {
+                char ch = idList.charAt(i);
+                if (ch == '\\' && i + 1 < idList.length()) {
+                    id.append(idList.charAt(++i));
+                } else if (ch == ',') {
+                    ids.add(id.toString());
+                    id.setLength(0);
+                } else {
+                    id.append(ch);
+                }
+            }
+            ids.add(id.toString());
+        }
+        List<Map<String,Object>> documents = new ArrayList<>();
+        for (String id : ids) {
+            Map<String,Object> document = core.documents.get(id);
+            if (document != null) documents.add(project(document, first(parameters, "fl")));
+        }
+        if (ids.size() == 1 && parameters.containsKey("ids") == false) {
+            return Collections.singletonMap("doc", documents.isEmpty() ? null : documents.get(0));
+        }
+        Map<String,Object> response = new LinkedHashMap<>();
+        response.put("numFound", documents.size());
+        response.put("start", 0);
+        response.put("docs", documents);
+        return Collections.singletonMap("response", response);
+    }
+
+    private Map<String,Object> clusterStatus() {
+        String nodeName = server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "_solr";
+        Map<String,Object> collectionStates = new LinkedHashMap<>();
+        for (Map.Entry<String,List<String>> collection : collections.entrySet()) {
+            Map<String,Object> shards = new LinkedHashMap<>();
+            for (int i = 0; i < collection.getValue().size(); i++) {
+                Map<String,Object> replica = new LinkedHashMap<>();
+                replica.put("core", collection.getValue().get(i));
+                replica.put("base_url", getUrl());
+                replica.put("node_name", nodeName);
+                replica.put("state", "active");
+                replica.put("leader", "true");
+                shards.put("shard" + (i + 1), Collections.singletonMap("replicas",
+                    Collections.singletonMap("core_node" + (i + 1), replica)));
+            }
+            collectionStates.put(collection.getKey(), Collections.singletonMap("shards", shards));
+        }
+        Map<String,Object> cluster = new LinkedHashMap<>();
+        cluster.put("collections", collectionStates);
+        cluster.put("live_nodes", Collections.singletonList(nodeName));
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("responseHeader", Collections.singletonMap("status", 0));
+        result.put("cluster", cluster);
+        return result;
+    }
+
+    private Map<String,Object> coreStatus(String name) {
+        Map<String,Object> status = new LinkedHashMap<>();
+        for (Core core : cores.values()) {
+            if (name != null && name.equals(core.name) == false) continue;
+            Map<String,Object> index = new LinkedHashMap<>();
+            index.put("numDocs", core.documents.size());
+            index.put("version", core.indexVersion);
+            Map<String,Object> coreStatus = new LinkedHashMap<>();
+            coreStatus.put("name", core.name);
+            coreStatus.put("index", index);
+            status.put(core.name, coreStatus);
+        }
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("responseHeader", Collections.singletonMap("status", 0));
+        result.put("status", status);
+        return result;
+    }
+
+    /**
+     * The documents of the first recording whose parameters the request carries, narrowed to
+     * those of the first recording of each of its fq as a q.
+     */
+    private List<Map<String,Object>> match(Core core, String handler, Map<String,List<String>> parameters) {
+        List<Map<String,Object>> documents = matchQuery(core, handler, parameters);
+        for (String filter : parameters.getOrDefault("fq", Collections.<String>emptyList())) {
+            documents.retainAll(matchQuery(core, handler, Collections.singletonMap("q", Collections.singletonList(filter))));
+        }
+        return documents;
+    }
+
+    private List<Map<String,Object>> matchQuery(Core core, String handler, Map<String,List<String>> parameters) {
+        String query = first(parameters, "q");
+        if (query != null && query.chars().filter(c -> c == '(').count() != query.chars().filter(c -> c == ')').count()) {
+            throw new SyntaxError("org.apache.solr.search.SyntaxError: Cannot parse '" + query + "'");
+        }
+        for (Recording recording : recordings) {
+            if (recording.core.equals(core.name) && recording.handler.equals(handler)
+                && matches(recording.parameters, parameters))
+            {
+                List<Map<String,Object>> documents = new ArrayList<>();
+                for (String id : recording.ids) {
+                    documents.add(core.documents.get(id));
+                }
+                return documents;
+            }
+        }
+        Distribution size = payloadSize;
+        if (size == null || core.documents.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Map<String,Object>> recorded = new ArrayList<>(core.documents.values());
+        List<Map<String,Object>> documents = new ArrayList<>();
+        long count = size.sample(ThreadLocalRandom.current());
+        for (int i = 0; i < count; i++) {
+            Map<String,Object> document = new LinkedHashMap<>(recorded.get(i % recorded.size()));
+            document.put(core.uniqueKey, document.get(core.uniqueKey) + "-" + i);
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private static boolean matches(Map<String,String> recorded, Map<String,List<String>> parameters) {
+        for (Map.Entry<String,String> parameter : recorded.entrySet()) {
+            if (parameter.getValue().equals(first(parameters, parameter.getKey())) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Keeps the fields of the fl parameter, all of them when there is none or it holds a *. */
+    private static Map<String,Object> project(Map<String,Object> document, String fieldList) {
+        if (fieldList == null || fieldList.trim().isEmpty()) {
+            return document;
+        }
+        List<String> fields = Arrays.asList(fieldList.split("\\s*[,\\s]\\s*"));
+        if (fields.contains("*")) {
+            return document;
+        }
+        Map<String,Object> projection = new LinkedHashMap<>();
+        for (Map.Entry<String,Object> field : document.entrySet()) {
+            if (fields.contains(field.getKey())) projection.put(field.getKey(), field.getValue());
+        }
+        return projection;
+    }
+
+    private static Map<String,Object> error(int status, String message) {
+        Map<String,Object> error = new LinkedHashMap<>();
+        error.put("msg", message);
+        error.put("code", status);
+        return Collections.singletonMap("error", error);
+    }
+
+    private void respond(HttpExchange exchange, int status, Map<String,?> body) throws IOException {
+        byte[] content;
+        if ("javabin".equals(exchange.getAttribute("wt"))) {
+            content = JavaBinWriter.write(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        } else {
+            content = JSONValue.toJSONString(body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (compression && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(content);
+            }
+            byte[] gzip = compressed.toByteArray();
+            if (corruptCompression) {
+                // The 10 byte gzip header is left intact, the deflate blocks after it are not.
+                for (int i = 10; i < gzip.length - 8; i++) gzip[i] = (byte)0xFF;
+            }
+            exchange.sendResponseHeaders(status, gzip.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(gzip);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        }
+    }
+
+    /** Reads the parameters of the query string and of a form encoded body. */
+    private static Map<String,List<String>> readParameters(HttpExchange exchange) throws IOException {
+        Map<String,List<String>> parameters = new LinkedHashMap<>();
+        addParameters(parameters, exchange.getRequestURI().getRawQuery());
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            addParameters(parameters, SolrAdapter.readString(body, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void addParameters(Map<String,List<String>> parameters, String encoded)
+        throws UnsupportedEncodingException
+    {
+        if (encoded == null || encoded.isEmpty()) return;
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), "UTF-8");
+            String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+            parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /** A query the stub refuses, answered with a 400 like Solr's query parser errors. */
+    private static final class SyntaxError extends RuntimeException {
+        SyntaxError(String message) {
+            super(message);
+        }
+    }
+
+    private static String first(Map<String,List<String>> parameters, String name) {
+        return first(parameters, name, null);
+    }
+
+    private static String first(Map<String,List<String>> parameters, String name, String defaultValue) {
+        List<String> values = parameters.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private static String decode(String cursorMark) {
+        return new String(Base64.getDecoder().decode(cursorMark), StandardCharsets.UTF_8);
+    }
+
+}